@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A select which doesn't hold a thread while waiting. It sits in the waiting lists of the channels like a parked
+ * ThreadContext, and wakeup() runs it on the executor instead of unparking a thread. Used once.
+ *
+ * A peer wakes it up holding the lock of the channel, so it is submitted to the executor after the lock is released
+ * (see BaseChan.ChanLock). If the executor rejects it, it runs with Go.go(), since the peer has already handed over
+ * the data.
+ */
+final class AsyncSelect extends ThreadContext implements Runnable {
+
+    static final int PENDING = -2;
+
+    private final SelectCases mCases;
+    private final SelectCases.Callback mCallback;
+    private final Executor mExecutor;
+    // index selected without waiting. PENDING while waiting for a peer.
+    private int mSelected = PENDING;
+    // next select woken up holding the same lock. guarded by the lock.
+    AsyncSelect mNextDeferred;
+
+    AsyncSelect(SelectCases cases, SelectCases.Callback callback, Executor executor) {
+        super(null);
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        mCases = cases;
+        mCallback = callback;
+        mExecutor = executor;
+    }
+
+    void start() {
+        int index = selectOrRegister();
+        if (index != PENDING) {
+            mSelected = index;
+            resume();
+        }
+    }
+
+    @Override
+    void wakeup(BaseChan chan) {
+        super.wakeup(chan);
+        if (chan != null && chan.mLock.isHeldByCurrentThread()) {
+            chan.mLock.defer(this);
+        } else {
+            resume();
+        }
+    }
+
+    /**
+     * Resume the selects linked through mNextDeferred. Called without holding any channel lock.
+     */
+    static void resumeAll(AsyncSelect list) {
+        while (list != null) {
+            AsyncSelect next = list.mNextDeferred;
+            list.mNextDeferred = null;
+            list.resume();
+            list = next;
+        }
+    }
+
+    private void resume() {
+        try {
+            mExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            // e.g. the executor has been shut down. the data taken from the peer must still be delivered.
+            Go.go(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int index = mSelected;
+        if (index == PENDING) {
+            // woken up by a peer or close(). The peer removed this context only from its own channel.
+            removeFromAllChannel();
+            if (mUnblockedChanIndex == -1) {
+                // woken up by close() or a lock-free peer. check the channels again.
+                Chan<?> retryChan = mRetryChan;
+                boolean retryReceive = mRetryReceive;
+                clearChan();
+                index = selectOrRegister();
+                if (retryChan != null) {
+                    retryChan.passOnRetry(retryReceive);
+                }
+                if (index == PENDING) {
+                    return;
+                }
+            } else {
+                index = mUnblockedChanIndex;
+                mCases.mData = mReceivedData;
+                mCases.mBits = mReceivedBits;
+                mCases.mOk = true;
+                clearChan();
+            }
+        }
+        mCallback.onSelect(index);
+    }
+
+    /**
+     * @return index of the case, -1 if a send case found its channel closed, or PENDING.
+     */
+    private int selectOrRegister() {
+        try {
+            return mCases.selectOrRegister(this);
+        } catch (BaseChan.SendOnClosedException e) {
+            clearChan();
+            return -1;
+        } catch (RuntimeException e) {
+            // a bug, not a closed send case. thrown to selectAsync(), or to the executor.
+            clearChan();
+            throw e;
+        }
+    }
+}
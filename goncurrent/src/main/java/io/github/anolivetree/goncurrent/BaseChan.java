@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Part of a channel shared by Chan and the primitive channels: the lock, the waiter lists, the wait strategy and
+ * closing. Select works on this.
+ */
+abstract class BaseChan {
+
+    static private final AtomicLong sNextId = new AtomicLong();
+
+    /**
+     * Thrown by a send on a closed channel. A RuntimeException for the callers, but AsyncSelect tells it from the
+     * other failures.
+     */
+    static final class SendOnClosedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SendOnClosedException() {
+            super("send on closed channel");
+        }
+    }
+
+    /**
+     * Lock of a channel which resumes the async selects woken up while it was held, after releasing it. They would
+     * otherwise run the executor of someone else inside a send or receive, and the callback of a direct executor
+     * under the lock of the peer.
+     */
+    static final class ChanLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        // linked through AsyncSelect.mNextDeferred. guarded by this lock.
+        private transient AsyncSelect mDeferred;
+
+        /**
+         * Resume the select after this lock is released. The lock must be held.
+         */
+        void defer(AsyncSelect select) {
+            select.mNextDeferred = mDeferred;
+            mDeferred = select;
+        }
+
+        /**
+         * Take the deferred selects to resume them later, e.g. after releasing other locks too.
+         * @param list deferred selects taken from other locks, or null.
+         * @return the selects of this lock followed by the list.
+         */
+        AsyncSelect takeDeferred(AsyncSelect list) {
+            AsyncSelect select = mDeferred;
+            if (select == null) {
+                return list;
+            }
+            mDeferred = null;
+            AsyncSelect last = select;
+            while (last.mNextDeferred != null) {
+                last = last.mNextDeferred;
+            }
+            last.mNextDeferred = list;
+            return select;
+        }
+
+        @Override
+        public void unlock() {
+            AsyncSelect deferred = null;
+            if (mDeferred != null && getHoldCount() == 1) {
+                deferred = takeDeferred(null);
+            }
+            super.unlock();
+            if (deferred != null) {
+                AsyncSelect.resumeAll(deferred);
+            }
+        }
+    }
+
+    /**
+     * Guards the buffer and the waiter lists of this channel. Select locks all of its channels in the order of mId.
+     */
+    final ChanLock mLock = new ChanLock();
+    final long mId = sNextId.getAndIncrement();
+
+    final WaitQueue mReceivers = new WaitQueue();
+    final WaitQueue mSenders = new WaitQueue();
+
+    volatile boolean mIsClosed = false;
+
+    static private final AtomicIntegerFieldUpdater<BaseChan> sDataNumUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(BaseChan.class, "mDataNum");
+
+    /**
+     * Number of data in the buffer guarded by mLock. Volatile so that length() and the readiness checks can read it
+     * without the lock. Every write is made holding mLock, which orders the writes, and a lock-free reader only needs
+     * to see a recent value eventually, so lazySet() is enough and saves the full fence of a volatile write.
+     */
+    volatile int mDataNum = 0;
+
+    private volatile WaitStrategy mWaitStrategy;
+
+    static private final TrackedSelectCases.Watch[] sNoWatches = new TrackedSelectCases.Watch[0];
+    // TrackedSelectCases watching this channel. copied on write holding mLock, so that it can be read without it.
+    private volatile TrackedSelectCases.Watch[] mWatches = sNoWatches;
+
+    BaseChan(WaitStrategy strategy) {
+        if (strategy == null) {
+            throw new NullPointerException("strategy");
+        }
+        mWaitStrategy = strategy;
+    }
+
+    /**
+     * Set the maximum number of times a blocked send, receive or select on this channel spins before it yields and
+     * parks. Same as passing WaitStrategy.adaptive(limit) to create(). 0 parks immediately.
+     */
+    public void setSpinLimit(int limit) {
+        mWaitStrategy = WaitStrategy.adaptive(limit);
+    }
+
+    WaitStrategy waitStrategy() {
+        return mWaitStrategy;
+    }
+
+    /**
+     * Release mLock and wait. The waker has already removed the waiter from the list and written the result into
+     * the context, so mLock is taken again only when interrupted, to remove the waiter.
+     * @return false when interrupted.
+     */
+    boolean await(ThreadContext context) {
+        mLock.unlock();
+        if (context.await()) {
+            return true;
+        }
+        mLock.lock();
+        return false;
+    }
+
+    /**
+     * Call before adding the waiter of the context to a list. A timed wait parks regardless of the strategy.
+     */
+    void prepareToWait(ThreadContext context, boolean timed) {
+        if (timed) {
+            context.prepareToWaitUntil();
+        } else {
+            context.prepareToWait(waitStrategy());
+        }
+    }
+
+    /**
+     * Same as await(ThreadContext) but gives up at the deadline if timed. The waiter is left in the list on
+     * timeout, for the caller to remove it holding mLock.
+     * @return false when interrupted or timed out.
+     */
+    boolean await(ThreadContext context, boolean timed, long deadline) {
+        if (!timed) {
+            return await(context);
+        }
+        mLock.unlock();
+        if (context.awaitUntil(deadline)) {
+            return true;
+        }
+        mLock.lock();
+        return false;
+    }
+
+    /**
+     * Receive for select without blocking. mLock must be held.
+     * @return false if it would block. Otherwise the received value is stored to the select.
+     */
+    abstract boolean receiveForSelect(SelectCases select, ThreadContext context);
+
+    /**
+     * Send for select without blocking. mLock must be held.
+     * @param data data to send to Chan
+     * @param bits value to send to a primitive channel
+     * @return false if it would block.
+     */
+    abstract boolean sendForSelect(Object data, long bits);
+
+    abstract int capacity();
+
+    /**
+     * mLock must be held.
+     */
+    final void setDataNum(int num) {
+        sDataNumUpdater.lazySet(this, num);
+    }
+
+    /**
+     * @return true after close() is called. Data sent before close() may still be buffered.
+     */
+    public boolean isClosed() {
+        return mIsClosed;
+    }
+
+    /**
+     * Read without the lock. False means a nonblocking receive would have blocked at the time of the reads.
+     * True means it might succeed.
+     */
+    boolean looksReadyToReceive() {
+        return mDataNum > 0 || mSenders.size() > 0 || mIsClosed;
+    }
+
+    /**
+     * Same as looksReadyToReceive() for send. A closed channel looks ready so that send throws.
+     */
+    boolean looksReadyToSend() {
+        return mDataNum < capacity() || mReceivers.size() > 0 || mIsClosed;
+    }
+
+    void addWatch(TrackedSelectCases.Watch watch) {
+        mLock.lock();
+        TrackedSelectCases.Watch[] watches = new TrackedSelectCases.Watch[mWatches.length + 1];
+        System.arraycopy(mWatches, 0, watches, 0, mWatches.length);
+        watches[mWatches.length] = watch;
+        mWatches = watches;
+        mLock.unlock();
+    }
+
+    void removeWatch(TrackedSelectCases.Watch watch) {
+        mLock.lock();
+        TrackedSelectCases.Watch[] old = mWatches;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == watch) {
+                TrackedSelectCases.Watch[] watches = old.length == 1 ? sNoWatches : new TrackedSelectCases.Watch[old.length - 1];
+                System.arraycopy(old, 0, watches, 0, i);
+                System.arraycopy(old, i + 1, watches, i, old.length - i - 1);
+                mWatches = watches;
+                break;
+            }
+        }
+        mLock.unlock();
+    }
+
+    /**
+     * Tell the watching selects that a receive might succeed now: data was buffered, a sender started waiting or
+     * the channel was closed. Only a volatile read when no one watches.
+     */
+    final void signalReceiveReady() {
+        TrackedSelectCases.Watch[] watches = mWatches;
+        for (int i = 0; i < watches.length; i++) {
+            if (watches[i].mReceive) {
+                watches[i].signal();
+            }
+        }
+    }
+
+    /**
+     * Tell the watching selects that a send might succeed now: buffered data was taken, a receiver started waiting
+     * or the channel was closed.
+     */
+    final void signalSendReady() {
+        TrackedSelectCases.Watch[] watches = mWatches;
+        for (int i = 0; i < watches.length; i++) {
+            if (!watches[i].mReceive) {
+                watches[i].signal();
+            }
+        }
+    }
+
+    /**
+     * Called by select while holding mLock after it has added itself to the waiting lists.
+     * A channel backed by a lock-free ring might have become ready without taking the lock in the meantime.
+     */
+    boolean isReadyAfterRegistration(boolean receive) {
+        return false;
+    }
+
+    /**
+     * Wake up all waiters to check the channel again. Called by close() holding mLock after setting mIsClosed.
+     */
+    void wakeupAllWaiters() {
+        // wakeup receivers
+        Waiter waiter;
+        while ((waiter = mReceivers.removeFirst()) != null) {
+            waiter.mContext.markUnblockedToRetry(this);
+        }
+        // wakeup senders
+        while ((waiter = mSenders.removeFirst()) != null) {
+            waiter.mContext.markUnblockedToRetry(this);
+        }
+        signalReceiveReady();
+        signalSendReady();
+    }
+
+    void addToSenderList(Waiter waiter) {
+        mSenders.add(waiter);
+        signalReceiveReady();
+        if (Config.DEBUG_PRINT) {
+            System.out.println("add context to sender list (select) context=" + waiter.mContext + ", numSenders=" + mSenders.size());
+        }
+    }
+
+    void removeFromSenderList(Waiter waiter) {
+        mLock.lock();
+        mSenders.remove(waiter);
+        mLock.unlock();
+        if (Config.DEBUG_PRINT) {
+            System.out.println("remove context from sender list (select) context=" + waiter.mContext);
+        }
+    }
+
+    void addToReceiverList(Waiter waiter) {
+        mReceivers.add(waiter);
+        signalSendReady();
+        if (Config.DEBUG_PRINT) {
+            System.out.println("add context to receiver list (select) context=" + waiter.mContext + ", numReceivers=" + mReceivers.size());
+        }
+    }
+
+    void removeFromReceiverList(Waiter waiter) {
+        mLock.lock();
+        boolean exist = mReceivers.remove(waiter);
+        mLock.unlock();
+        if (Config.DEBUG_PRINT) {
+            System.out.println("remove context from receiver list(select) context=" + waiter.mContext + " " + exist);
+        }
+    }
+}
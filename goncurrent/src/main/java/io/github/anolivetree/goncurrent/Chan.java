@@ -15,17 +15,54 @@
  */
 package io.github.anolivetree.goncurrent;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-public class Chan<T> implements Iterable<T> {
+public class Chan<T> extends BaseChan implements Iterable<T> {
 
-    static final ReentrantLock sLock = new ReentrantLock();
     static final Object sWouldBlock = new Object();
-
+    // returned by receive(boolean) when the channel is closed and empty. The value is mEnd.
+    static final Object sClosed = new Object();
+    // returned by receive(boolean) when interrupted or timed out
+    static final Object sInterrupted = new Object();
     static public <T> Chan<T> create(int depth) {
-        return new Chan<T>(depth);
+        return new Chan<T>(depth, null, WaitStrategy.adaptive());
+    }
+
+    /**
+     * Create a channel whose blocked send(), receive() and select() wait with the given strategy.
+     */
+    static public <T> Chan<T> create(int depth, WaitStrategy strategy) {
+        return new Chan<T>(depth, null, strategy);
+    }
+
+    /**
+     * Create a channel which is used by exactly one sending thread and one receiving thread.
+     * While neither side has to wait, send() and receive() don't take any lock.
+     * Using it from more than one sender or receiver (including select) at the same time breaks the channel.
+     * An unbuffered channel (depth == 0) behaves the same as the one created by create().
+     */
+    static public <T> Chan<T> createSpsc(int depth) {
+        return createSpsc(depth, WaitStrategy.adaptive());
+    }
+
+    static public <T> Chan<T> createSpsc(int depth, WaitStrategy strategy) {
+        return new Chan<T>(depth, depth > 0 ? new SpscRing(depth) : null, strategy);
+    }
+
+    /**
+     * Create a buffered channel backed by a lock-free ring which any number of threads can send to and receive from.
+     * While neither side has to wait, send() and receive() don't take any lock.
+     * An unbuffered channel (depth == 0) behaves the same as the one created by create().
+     */
+    static public <T> Chan<T> createLockFree(int depth) {
+        return createLockFree(depth, WaitStrategy.adaptive());
+    }
+
+    static public <T> Chan<T> createLockFree(int depth, WaitStrategy strategy) {
+        return new Chan<T>(depth, depth > 0 ? new MpmcRing(depth) : null, strategy);
     }
 
     static public class Result<T> {
@@ -38,58 +75,128 @@ public class Chan<T> implements Iterable<T> {
         }
     }
 
+    /**
+     * See receiveAsync().
+     */
+    public interface ReceiveCallback<T> {
+        /**
+         * @param data received data. 'end' of close() when the channel is closed.
+         * @param ok false when the channel is closed.
+         */
+        void onReceive(T data, boolean ok);
+    }
+
+    /**
+     * See sendAsync().
+     */
+    public interface SendCallback {
+        /**
+         * @param ok false if the channel was closed before a receiver took the data.
+         */
+        void onSent(boolean ok);
+    }
+
+    /**
+     * Result which can be reused. See receiveWithResult(MutableResult).
+     */
+    static public class MutableResult<T> {
+        public T data;
+        public boolean ok;
+    }
+
     private final int mDepth;
-    private final ArrayList<ThreadContext> mReceivers = new ArrayList<ThreadContext>();
     private final T[] mData;
-    private final ArrayList<ThreadContext> mSenders = new ArrayList<ThreadContext>();
+    // used instead of mData by a channel created by createSpsc() or createLockFree()
+    private final LockFreeRing mRing;
 
-    private boolean mIsClosed = false;
     private T mEnd = null;
     private int mDataR;
     private int mDataW;
-    private int mDataNum;
 
-    private Chan(int depth) {
+    private Chan(int depth, LockFreeRing ring, WaitStrategy strategy) {
+        super(strategy);
         if (depth < 0) {
             throw new IllegalArgumentException("depth < 0");
         }
         mDepth = depth;
-        mData = (T[])new Object[depth];
-        mDataNum = 0;
+        mRing = ring;
+        mData = ring == null ? (T[])new Object[depth] : null;
         mDataR = 0;
         mDataW = 0;
     }
 
     public void send(T data) {
-        sLock.lock();
+        if (mRing != null) {
+            if (Config.DEBUG_CHECK_STATE) {
+                ThreadContext.get().ensureHasNoChan();
+            }
+            sendToRing(data, false, false, 0);
+            return;
+        }
+        mLock.lock();
         try {
             if (Config.DEBUG_CHECK_STATE) {
                 ThreadContext.get().ensureHasNoChan();
             }
             send(data, false);
         } finally {
-            sLock.unlock();
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
         }
     }
 
     /**
-     *
-     * @return false if it would block. Even when it's true, it might mean that the thread is interrupted.
+     * Same as send() but gives up after the timeout.
+     * @return false when timed out or interrupted. No receiver gets the data then.
+     */
+    public boolean send(T data, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (mRing != null) {
+            return sendToRing(data, false, true, deadline);
+        }
+        mLock.lock();
+        try {
+            if (Config.DEBUG_CHECK_STATE) {
+                ThreadContext.get().ensureHasNoChan();
+            }
+            return send(data, false, true, deadline);
+        } finally {
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * mLock must be held. It is released while waiting, and is not taken again when a receiver has taken the data.
+     * @return false if it would block, or when interrupted.
      */
     boolean send(T data, boolean nonblock) {
+        return send(data, nonblock, false, 0);
+    }
+
+    /**
+     * Same as send(T, boolean). If timed, gives up at the deadline.
+     * @param deadline in System.nanoTime()
+     * @return false if it would block, when interrupted or timed out.
+     */
+    boolean send(T data, boolean nonblock, boolean timed, long deadline) {
+        if (mRing != null) {
+            return sendToRing(data, nonblock, timed, deadline);
+        }
         while (true) {
 
             // Go's implementation forbids sending even though a goroutine has been waiting to send before close() is called.
             if (mIsClosed) {
-                throw new RuntimeException("send on closed channel");
+                throw new SendOnClosedException();
             }
 
             // try to make space in the queue
-            while (mReceivers.size() > 0 && mDataNum > 0) {
-                // copy data from queue
-                passDataToFirstReceiverAndWakeup(mData[mDataR]);
+            while (mDataNum > 0 && passDataToFirstReceiverAndWakeup(mData[mDataR])) {
+                // copied data from queue
                 mData[mDataR] = null;
-                mDataNum--;
+                setDataNum(mDataNum - 1);
                 mDataR++;
                 if (mDataR >= mDepth) {
                     mDataR = 0;
@@ -97,24 +204,24 @@ public class Chan<T> implements Iterable<T> {
             }
 
             // no more receivers || no more data || no receiver && no data
-            if (mReceivers.size() > 0) {
-                // pass data directly to a receiver
-                passDataToFirstReceiverAndWakeup(data);
+            if (passDataToFirstReceiverAndWakeup(data)) {
+                // passed data directly to a receiver
                 return true;
             }
 
             if (mDataNum < mDepth) {
                 // copy data to the queue
                 mData[mDataW] = data;
-                mDataNum++;
+                setDataNum(mDataNum + 1);
                 mDataW++;
                 if (mDataW >= mDepth) {
                     mDataW = 0;
                 }
+                signalReceiveReady();
                 return true;
             }
 
-            if (nonblock) {
+            if (nonblock || (timed && deadline - System.nanoTime() <= 0)) {
                 return false;
             }
 
@@ -125,18 +232,18 @@ public class Chan<T> implements Iterable<T> {
                 if (Config.DEBUG_CHECK_STATE) {
                     context.ensureHasNoChan();
                 }
-                context.addSendChan(this, data);
-                mSenders.add(context);
+                Waiter waiter = context.addSendChan(this, data);
+                prepareToWait(context, timed);
+                mSenders.add(waiter);
+                signalReceiveReady();
 
-                try {
-                    context.mCond.await();
-                } catch (InterruptedException e) {
-                    mSenders.remove(context);
-                    return true;
+                if (!await(context, timed, deadline)) {
+                    // interrupted or timed out
+                    mSenders.remove(waiter);
+                    return false;
                 }
 
-                boolean exist = mSenders.remove(context);
-                if (exist) {
+                if (Config.DEBUG_CHECK_STATE && waiter.mQueue != null) {
                     throw new RuntimeException("not removed from mSenders list");
                 }
 
@@ -145,6 +252,7 @@ public class Chan<T> implements Iterable<T> {
                     return true;
                 }
                 // woken up by close.
+                mLock.lock();
             } finally {
                 context.clearChan();
             }
@@ -152,35 +260,335 @@ public class Chan<T> implements Iterable<T> {
     }
 
     public T receive() {
-        sLock.lock();
+        return valueOf(receiveObject());
+    }
+
+    public Result<T> receiveWithResult() {
+        Object received = receiveObject();
+        return new Result<T>(valueOf(received), isOk(received));
+    }
+
+    /**
+     * Same as receiveWithResult() but stores the result into the given holder instead of allocating a Result.
+     * @return result.ok
+     */
+    public boolean receiveWithResult(MutableResult<T> result) {
+        Object received = receiveObject();
+        result.data = valueOf(received);
+        result.ok = isOk(received);
+        return result.ok;
+    }
+
+    /**
+     * Same as receiveWithResult() but gives up after the timeout.
+     * @return null when timed out or interrupted. result.ok is false when closed.
+     */
+    public Result<T> receive(long timeout, TimeUnit unit) {
+        Object received = receiveObject(true, System.nanoTime() + unit.toNanos(timeout));
+        if (received == sInterrupted) {
+            return null;
+        }
+        return new Result<T>(valueOf(received), isOk(received));
+    }
+
+    /**
+     * Send all the data holding the lock once. Blocks only for the data which neither fits in the buffer nor can be
+     * handed to a waiting receiver.
+     * @return the number of data sent. Less than data.length when interrupted.
+     */
+    public int sendAll(T[] data) {
+        return sendAllObjects(data);
+    }
+
+    /**
+     * Same as sendAll(T[]).
+     */
+    public int sendAll(Collection<? extends T> data) {
+        return sendAllObjects(data.toArray());
+    }
+
+    /**
+     * data holds only T. It is typed Object[] because Collection.toArray() can't return T[].
+     */
+    @SuppressWarnings("unchecked")
+    private int sendAllObjects(Object[] data) {
+        if (mRing != null) {
+            return sendAllToRing(data);
+        }
+        int sent = 0;
+        mLock.lock();
         try {
             if (Config.DEBUG_CHECK_STATE) {
                 ThreadContext.get().ensureHasNoChan();
             }
-            Result<T> result = receive(false);
-            return result.data;
+            while (sent < data.length) {
+                if (!send((T) data[sent], true)) {
+                    // doesn't fit. wait for this one
+                    if (!send((T) data[sent], false)) {
+                        break;
+                    }
+                    if (!mLock.isHeldByCurrentThread()) {
+                        mLock.lock();
+                    }
+                }
+                sent++;
+            }
         } finally {
-            sLock.unlock();
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
         }
+        return sent;
     }
 
-    public Result<T> receiveWithResult() {
-        sLock.lock();
+    @SuppressWarnings("unchecked")
+    private int sendAllToRing(Object[] data) {
+        int sent = 0;
+        while (sent < data.length) {
+            if (mIsClosed) {
+                throw new SendOnClosedException();
+            }
+            int start = sent;
+            while (sent < data.length && mRing.offer(data[sent])) {
+                sent++;
+            }
+            if (sent > start) {
+                if (mReceivers.size() > 0) {
+                    wakeupWaiters(mReceivers, sent - start);
+                }
+                signalReceiveReady();
+            }
+            if (sent < data.length) {
+                // full. wait for this one
+                if (!sendToRing((T) data[sent], false, false, 0)) {
+                    break;
+                }
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Wait until at least one data is available, and receive it and whatever else is buffered or offered by waiting
+     * senders, up to max, holding the lock once. After waiting, takes the lock once more for the data sent meanwhile.
+     * @return the number of data stored to dst. 0 if closed or interrupted. Call receive() to get 'end' of close().
+     */
+    public int receiveBatch(T[] dst, int max) {
+        if (max > dst.length) {
+            throw new IllegalArgumentException("max > dst.length");
+        }
+        if (max <= 0) {
+            return 0;
+        }
+        Object received;
+        if (mRing != null) {
+            int num = drainRing(dst, 0, null, max);
+            if (num > 0) {
+                return num;
+            }
+            received = receiveFromRing(false, false, 0);
+            if (!isOk(received)) {
+                return 0;
+            }
+            dst[0] = valueOf(received);
+            return 1 + drainRing(dst, 1, null, max - 1);
+        }
+        mLock.lock();
         try {
             if (Config.DEBUG_CHECK_STATE) {
                 ThreadContext.get().ensureHasNoChan();
             }
-            return receive(false);
+            int num = drainLocked(dst, 0, null, max);
+            if (num > 0) {
+                return num;
+            }
+            received = receive(false);
+            if (!isOk(received)) {
+                return 0;
+            }
+            dst[0] = valueOf(received);
+            // handed by a sender while waiting. take the rest of the burst.
+            if (!mLock.isHeldByCurrentThread()) {
+                mLock.lock();
+            }
+            return 1 + drainLocked(dst, 1, null, max - 1);
         } finally {
-            sLock.unlock();
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
         }
     }
 
     /**
-     *
-     * @return If closed, returns 'end' of close(T end) or null. When interrupted, returns null.
+     * Receive whatever is buffered or offered by waiting senders, up to max, without blocking.
+     * @return the number of data added to dst.
      */
-    Result<T> receive(boolean nonblock) {
+    public int drainTo(Collection<? super T> dst, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        if (mRing != null) {
+            return drainRing(null, 0, dst, max);
+        }
+        mLock.lock();
+        try {
+            return drainLocked(null, 0, dst, max);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * mLock must be held. Stores to either array from offset or collection.
+     */
+    @SuppressWarnings("unchecked")
+    private int drainLocked(Object[] array, int offset, Collection<? super T> collection, int max) {
+        int num = 0;
+        while (num < max) {
+            Object received = receive(true);
+            if (received == sWouldBlock || received == sClosed) {
+                break;
+            }
+            if (array != null) {
+                array[offset + num] = received;
+            } else {
+                collection.add((T) received);
+            }
+            num++;
+        }
+        return num;
+    }
+
+    /**
+     * Poll the ring up to max times and wake up as many waiting senders at once. Stores to either array from offset
+     * or collection.
+     */
+    @SuppressWarnings("unchecked")
+    private int drainRing(Object[] array, int offset, Collection<? super T> collection, int max) {
+        int num = 0;
+        while (num < max) {
+            Object received = mRing.poll();
+            if (received == sWouldBlock) {
+                break;
+            }
+            if (array != null) {
+                array[offset + num] = received;
+            } else {
+                collection.add((T) received);
+            }
+            num++;
+        }
+        if (num > 0) {
+            if (mSenders.size() > 0) {
+                wakeupWaiters(mSenders, num);
+            }
+            signalSendReady();
+        }
+        return num;
+    }
+
+    private Object receiveObject() {
+        return receiveObject(false, 0);
+    }
+
+    /**
+     * Receive without blocking the calling thread. The callback runs on the executor when the data arrives. See
+     * SelectCases.selectAsync().
+     */
+    public void receiveAsync(final ReceiveCallback<? super T> callback, Executor executor) {
+        if (callback == null) {
+            throw new NullPointerException("callback");
+        }
+        final SelectCases cases = new SelectCases();
+        cases.addReceive(this);
+        cases.selectAsync(new SelectCases.Callback() {
+            @Override
+            public void onSelect(int index) {
+                @SuppressWarnings("unchecked")
+                T data = (T) cases.getData();
+                callback.onReceive(data, cases.isOk());
+            }
+        }, executor);
+    }
+
+    /**
+     * Send without blocking the calling thread. The callback runs on the executor when a receiver or the buffer has
+     * taken the data. See SelectCases.selectAsync().
+     */
+    public void sendAsync(T data, final SendCallback callback, Executor executor) {
+        if (callback == null) {
+            throw new NullPointerException("callback");
+        }
+        SelectCases cases = new SelectCases();
+        cases.addSend(this, data);
+        cases.selectAsync(new SelectCases.Callback() {
+            @Override
+            public void onSelect(int index) {
+                callback.onSent(index >= 0);
+            }
+        }, executor);
+    }
+
+    /**
+     * Blocking receive without a Result.
+     * @return data, sClosed or sInterrupted. sInterrupted also when timed out.
+     */
+    private Object receiveObject(boolean timed, long deadline) {
+        if (mRing != null) {
+            if (Config.DEBUG_CHECK_STATE) {
+                ThreadContext.get().ensureHasNoChan();
+            }
+            return receiveFromRing(false, timed, deadline);
+        }
+        mLock.lock();
+        try {
+            if (Config.DEBUG_CHECK_STATE) {
+                ThreadContext.get().ensureHasNoChan();
+            }
+            return receive(false, timed, deadline);
+        } finally {
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Convert the return value of receive(boolean) to the value returned to the user.
+     * 'end' of close(T end) when closed, null when interrupted.
+     */
+    T valueOf(Object received) {
+        if (received == sClosed) {
+            return mEnd;
+        }
+        if (received == sInterrupted) {
+            return null;
+        }
+        return (T) received;
+    }
+
+    private static boolean isOk(Object received) {
+        return received != sClosed && received != sInterrupted;
+    }
+
+    /**
+     * mLock must be held. It is released while waiting, and is not taken again when a sender has handed the data.
+     * Doesn't allocate anything. Convert the return value with valueOf().
+     * @return data. sClosed if closed, sInterrupted when interrupted, and sWouldBlock if nonblock and it would block.
+     */
+    Object receive(boolean nonblock) {
+        return receive(nonblock, false, 0);
+    }
+
+    /**
+     * Same as receive(boolean). If timed, gives up at the deadline and returns sInterrupted.
+     * @param deadline in System.nanoTime()
+     */
+    Object receive(boolean nonblock, boolean timed, long deadline) {
+        if (mRing != null) {
+            return receiveFromRing(nonblock, timed, deadline);
+        }
         while (true) {
 
             boolean hasRet = false;
@@ -191,11 +599,12 @@ public class Chan<T> implements Iterable<T> {
                 data = mData[mDataR];
                 hasRet = true;
                 mData[mDataR] = null;
-                mDataNum--;
+                setDataNum(mDataNum - 1);
                 mDataR++;
                 if (mDataR >= mDepth) {
                     mDataR = 0;
                 }
+                signalSendReady();
             }
 
             // receive directly from the first sender
@@ -203,8 +612,11 @@ public class Chan<T> implements Iterable<T> {
                 if (Config.DEBUG_PRINT) {
                     System.out.printf("receive: receive directly from sender. numSenders=%d\n", mSenders.size());
                 }
-                data = removeAndWakeupFirstSender();
-                hasRet = true;
+                Object sent = removeAndWakeupFirstSender();
+                if (sent != sWouldBlock) {
+                    data = (T) sent;
+                    hasRet = true;
+                }
             }
 
             // copy data from senders to the queue
@@ -212,8 +624,12 @@ public class Chan<T> implements Iterable<T> {
                 if (Config.DEBUG_PRINT) {
                     System.out.printf("receive: queue is some room. copy data from sender to the queue. numSenders=%d\n", mSenders.size());
                 }
-                mData[mDataW] = removeAndWakeupFirstSender();
-                mDataNum++;
+                Object sent = removeAndWakeupFirstSender();
+                if (sent == sWouldBlock) {
+                    break;
+                }
+                mData[mDataW] = (T) sent;
+                setDataNum(mDataNum + 1);
                 mDataW++;
                 if (mDataW >= mDepth) {
                     mDataW = 0;
@@ -221,15 +637,18 @@ public class Chan<T> implements Iterable<T> {
             }
 
             if (hasRet) {
-                return new Result<T>(data, true);
+                return data;
             }
 
             if (mIsClosed) {
-                return new Result<T>(mEnd, false);
+                return sClosed;
             }
 
             if (nonblock) {
-                return null;
+                return sWouldBlock;
+            }
+            if (timed && deadline - System.nanoTime() <= 0) {
+                return sInterrupted;
             }
 
             ThreadContext context = null;
@@ -238,85 +657,282 @@ public class Chan<T> implements Iterable<T> {
                 if (Config.DEBUG_CHECK_STATE) {
                     context.ensureHasNoChan();
                 }
-                context.addReceiveChan(this);
+                Waiter waiter = context.addReceiveChan(this);
+                prepareToWait(context, timed);
                 if (Config.DEBUG_PRINT) {
                     System.out.println("add receiver " + context);
                 }
-                mReceivers.add(context);
+                mReceivers.add(waiter);
+                signalSendReady();
 
                 // Wait until there's a space in the queue or any sender appear.
-                try {
-                    context.mCond.await();
-                } catch (InterruptedException e) {
-                    boolean exist = mReceivers.remove(context);
+                if (!await(context, timed, deadline)) {
+                    // interrupted or timed out
+                    boolean exist = mReceivers.remove(waiter);
                     if (Config.DEBUG_PRINT) {
                         System.out.println("remove context from receiver list context=" + context + " " + exist);
                     }
-                    return new Result<T>(null, false);
+                    return sInterrupted;
                 }
 
                 if (Config.DEBUG_PRINT) {
                     System.out.println("receive: woken up");
                 }
-                boolean exist = mReceivers.remove(context);
-                if (Config.DEBUG_PRINT) {
-                    System.out.println("receive: remove context from receiver list context=" + context + " " + exist);
-                }
 
                 if (context.mUnblockedChanIndex != -1) {
-                    data = (T) context.mReceivedData;
-                    return new Result<T>(data, true);
+                    return context.mReceivedData;
                 }
                 // woken up by close()
+                mLock.lock();
             } finally {
                 context.clearChan();
             }
         }
     }
 
-    private void passDataToFirstReceiverAndWakeup(T data) {
-        ThreadContext context = mReceivers.remove(0);
-        if (Config.DEBUG_PRINT) {
-            System.out.println("remove receiver(head) remain=" + mReceivers.size() + " " + context);
+    /**
+     * send() of a channel backed by a lock-free ring. mLock is taken only to wait or to wake up the receiver.
+     */
+    private boolean sendToRing(T data, boolean nonblock, boolean timed, long deadline) {
+        while (true) {
+            if (mRing.offer(data)) {
+                if (mReceivers.size() > 0) {
+                    wakeupWaiters(mReceivers, 1);
+                }
+                signalReceiveReady();
+                return true;
+            }
+            // the ring is closed before mIsClosed is set, and an offer which succeeded was made before close()
+            if (mRing.isClosed()) {
+                throw new SendOnClosedException();
+            }
+
+            if (nonblock || (timed && deadline - System.nanoTime() <= 0)) {
+                return false;
+            }
+
+            ThreadContext context = ThreadContext.get();
+            mLock.lock();
+            try {
+                Waiter waiter = context.addSendChan(this, data);
+                prepareToWait(context, timed);
+                mSenders.add(waiter);
+
+                // check again. the receiver doesn't take the lock unless it sees this context in mSenders.
+                if (!mRing.isFull() || mIsClosed) {
+                    mSenders.remove(waiter);
+                    continue;
+                }
+
+                if (!await(context, timed, deadline)) {
+                    // interrupted or timed out
+                    mSenders.remove(waiter);
+                    return false;
+                }
+                // woken up by the receiver or close(). try again.
+            } finally {
+                context.clearChan();
+                if (mLock.isHeldByCurrentThread()) {
+                    mLock.unlock();
+                }
+            }
         }
-        context.markReceiverUnblockedAndRemoveFromOtherChans(this, data);
-        context.mCond.signal();
     }
 
+    /**
+     * receive() of a channel backed by a lock-free ring. mLock is taken only to wait or to wake up the sender.
+     */
+    private Object receiveFromRing(boolean nonblock, boolean timed, long deadline) {
+        while (true) {
+            Object data = pollRing();
+            if (data != sWouldBlock) {
+                return data;
+            }
+
+            if (mIsClosed) {
+                // data sent before close() might have arrived after the first poll, or might still be being written
+                // by its sender.
+                while (true) {
+                    data = pollRing();
+                    if (data != sWouldBlock) {
+                        return data;
+                    }
+                    if (mRing.isDrained()) {
+                        return sClosed;
+                    }
+                    Thread.yield();
+                }
+            }
 
-    private T removeAndWakeupFirstSender() {
-        ThreadContext context = mSenders.remove(0);
-        T data = (T) context.markSenderUnblockedAnsRemoveFromOtherChans(this);
-        context.mCond.signal();
+            if (nonblock) {
+                return sWouldBlock;
+            }
+            if (timed && deadline - System.nanoTime() <= 0) {
+                return sInterrupted;
+            }
+
+            ThreadContext context = ThreadContext.get();
+            mLock.lock();
+            try {
+                Waiter waiter = context.addReceiveChan(this);
+                prepareToWait(context, timed);
+                mReceivers.add(waiter);
+
+                // check again. the sender doesn't take the lock unless it sees this context in mReceivers.
+                if (!mRing.isEmpty() || mIsClosed) {
+                    mReceivers.remove(waiter);
+                    continue;
+                }
+
+                if (!await(context, timed, deadline)) {
+                    // interrupted or timed out
+                    mReceivers.remove(waiter);
+                    return sInterrupted;
+                }
+                // woken up by the sender or close(). try again.
+            } finally {
+                context.clearChan();
+                if (mLock.isHeldByCurrentThread()) {
+                    mLock.unlock();
+                }
+            }
+        }
+    }
+
+    private Object pollRing() {
+        Object data = mRing.poll();
+        if (data != sWouldBlock) {
+            if (mSenders.size() > 0) {
+                wakeupWaiters(mSenders, 1);
+            }
+            signalSendReady();
+        }
         return data;
     }
 
-    void addToSenderList(ThreadContext context) {
-        mSenders.add(context);
-        if (Config.DEBUG_PRINT) {
-            System.out.println("add context to sender list (select) context=" + context + ", numSenders=" + mSenders.size());
+    /**
+     * Wake up the first 'num' contexts in the queue which are still waiting. The woken threads check the ring again.
+     * A woken select may take another case instead, and then passes the wakeup on with passOnRetry().
+     */
+    private void wakeupWaiters(WaitQueue waiters, int num) {
+        mLock.lock();
+        Waiter waiter;
+        while (num > 0 && (waiter = waiters.removeFirst()) != null) {
+            if (waiter.mContext.markUnblockedToRetry(waiter, this)) {
+                num--;
+            }
         }
+        mLock.unlock();
     }
 
-    void removeFromSenderList(ThreadContext context) {
-        mSenders.remove(context);
-        if (Config.DEBUG_PRINT) {
-            System.out.println("remove context from sender list (select) context=" + context);
+    /**
+     * Called without holding any lock by a select which wakeupWaiters() woke up, after it has selected a case or
+     * started waiting again. If the ring is still ready for the side of the select, the select hasn't taken the
+     * data or the room it was woken up for, so wake up the next waiter. Otherwise a receiver or a sender waiting on
+     * this channel alone would never be woken up for it.
+     */
+    void passOnRetry(boolean receive) {
+        if (receive) {
+            if (!mRing.isEmpty() && mReceivers.size() > 0) {
+                wakeupWaiters(mReceivers, 1);
+            }
+        } else if (!mRing.isFull() && mSenders.size() > 0) {
+            wakeupWaiters(mSenders, 1);
         }
     }
 
-    void addToReceiverList(ThreadContext context) {
-        mReceivers.add(context);
-        if (Config.DEBUG_PRINT) {
-            System.out.println("add context to receiver list (select) context=" + context + ", numReceivers=" + mReceivers.size());
+    @Override
+    boolean receiveForSelect(SelectCases select, ThreadContext context) {
+        Object received = receive(true);
+        if (received == sWouldBlock) {
+            return false;
         }
+        select.mData = valueOf(received);
+        select.mOk = isOk(received);
+        if (select.mBatch != null && select.mOk) {
+            select.mBatch[0] = received;
+            select.mCount = 1 + drainForSelect(select.mBatch, 1, select.mBatchMax - 1);
+        }
+        return true;
     }
 
-    void removeFromReceiverList(ThreadContext context) {
-        boolean exist = mReceivers.remove(context);
-        if (Config.DEBUG_PRINT) {
-            System.out.println("remove context from receiver list(select) context=" + context + " " + exist);
+    /**
+     * Receive up to max buffered data, or data of waiting senders, without blocking. mLock must be held.
+     * @return the number of data stored to dst from offset.
+     */
+    int drainForSelect(Object[] dst, int offset, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        if (mRing != null) {
+            return drainRing(dst, offset, null, max);
+        }
+        return drainLocked(dst, offset, null, max);
+    }
+
+    @Override
+    boolean sendForSelect(Object data, long bits) {
+        return send((T) data, true);
+    }
+
+    @Override
+    boolean looksReadyToReceive() {
+        if (mRing != null) {
+            return !mRing.isEmpty() || mIsClosed;
+        }
+        return super.looksReadyToReceive();
+    }
+
+    @Override
+    boolean looksReadyToSend() {
+        if (mRing != null) {
+            return !mRing.isFull() || mIsClosed;
+        }
+        return super.looksReadyToSend();
+    }
+
+    @Override
+    boolean isReadyAfterRegistration(boolean receive) {
+        if (mRing == null) {
+            return false;
         }
+        if (mIsClosed) {
+            return true;
+        }
+        return receive ? !mRing.isEmpty() : !mRing.isFull();
+    }
+
+    /**
+     * Hand the data to the first receiver which is still waiting. Receivers which have already been woken up
+     * through another channel of their select are dropped from the list.
+     * @return false if there's no waiting receiver.
+     */
+    private boolean passDataToFirstReceiverAndWakeup(T data) {
+        Waiter waiter;
+        while ((waiter = mReceivers.removeFirst()) != null) {
+            if (Config.DEBUG_PRINT) {
+                System.out.println("remove receiver(head) remain=" + mReceivers.size() + " " + waiter.mContext);
+            }
+            if (waiter.mContext.markReceiverUnblocked(waiter, data)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the data from the first sender which is still waiting.
+     * @return sWouldBlock if there's no waiting sender.
+     */
+    private Object removeAndWakeupFirstSender() {
+        Waiter waiter;
+        while ((waiter = mSenders.removeFirst()) != null) {
+            Object data = waiter.mContext.markSenderUnblocked(waiter);
+            if (data != sWouldBlock) {
+                return data;
+            }
+        }
+        return sWouldBlock;
     }
 
     public void close() {
@@ -324,30 +940,25 @@ public class Chan<T> implements Iterable<T> {
     }
 
     public void close(T end) {
-        sLock.lock();
+        mLock.lock();
         if (!mIsClosed) {
-            mIsClosed = true;
-            mEnd = end;
-
-            // wakeup receivers
-            int size = mReceivers.size();
-            for (int i = 0; i < size; i++) {
-                mReceivers.get(i).mCond.signal();
-            }
-            // wakeup senders
-            size = mSenders.size();
-            for (int i = 0; i < size; i++) {
-                mSenders.get(i).mCond.signal();
+            if (mRing != null) {
+                // before mIsClosed, so that a receiver which sees it waits for the data offered before
+                mRing.close();
             }
+            // mEnd is read without the lock after mIsClosed is seen
+            mEnd = end;
+            mIsClosed = true;
+            wakeupAllWaiters();
         }
-        sLock.unlock();
+        mLock.unlock();
     }
 
     public int length() {
-        sLock.lock();
-        int ret = mDataNum;
-        sLock.unlock();
-        return ret;
+        if (mRing != null) {
+            return mRing.size();
+        }
+        return mDataNum;
     }
 
     public int capacity() {
@@ -412,11 +1023,11 @@ public class Chan<T> implements Iterable<T> {
 
         private void read() {
             if (Config.DEBUG_PRINT) {
-                System.out.printf("call receiveWithResult\n");
+                System.out.printf("call receiveObject\n");
             }
-            Result<T> result = mChan.receiveWithResult();
-            if (result.ok) {
-                mData = result.data;
+            Object received = mChan.receiveObject();
+            if (isOk(received)) {
+                mData = (T) received;
                 mHasData = true;
                 if (Config.DEBUG_PRINT) {
                     System.out.printf("read ok. mData=" + mData + "\n");
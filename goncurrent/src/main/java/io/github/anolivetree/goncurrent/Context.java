@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cancellation which propagates from a context to its children, like context.Context in Go.
+ *
+ *     Context ctx = Context.withTimeout(Context.background(), 1, TimeUnit.SECONDS);
+ *     Select select = new Select();
+ *     select.receive(results);
+ *     select.receive(ctx.done());
+ *     if (select.select() == 1) {
+ *         // ctx.err() is Context.DEADLINE_EXCEEDED or Context.CANCELED
+ *     }
+ *     ctx.cancel(); // release the timer and the link from the parent
+ *
+ * Cancelling a context cancels its whole subtree, and costs O(subtree). The channel returned by done() is created
+ * on the first call and closed when the context is cancelled. Deadlines share the timing wheel of Time.
+ * Thread safe.
+ */
+public class Context {
+
+    static public final Exception CANCELED = new Exception("context canceled");
+    static public final Exception DEADLINE_EXCEEDED = new Exception("context deadline exceeded");
+
+    static private final Context sBackground = new Context(null, false, 0);
+
+    /**
+     * Fires the deadline of a context on the thread of the timing wheel.
+     */
+    static private final class DeadlineTimer extends TimingWheel.Entry {
+        private final Context mContext;
+
+        DeadlineTimer(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        void expire() {
+            mContext.cancel(DEADLINE_EXCEEDED, true);
+        }
+    }
+
+    // null for background()
+    private final Context mParent;
+    private final boolean mHasDeadline;
+    private final long mDeadlineNanos;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    // written holding mLock
+    private volatile Chan<Void> mDone;
+    private volatile Exception mErr;
+    // children which are not cancelled yet. Siblings are linked through mPrevSibling and mNextSibling, guarded by
+    // the lock of the parent.
+    private Context mFirstChild;
+    private Context mPrevSibling;
+    private Context mNextSibling;
+    private DeadlineTimer mTimer;
+
+    private Context(Context parent, boolean hasDeadline, long deadlineNanos) {
+        mParent = parent;
+        mHasDeadline = hasDeadline;
+        mDeadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return the root context, which is never cancelled.
+     */
+    static public Context background() {
+        return sBackground;
+    }
+
+    /**
+     * @return a child cancelled by cancel(), or when the parent is cancelled.
+     */
+    static public Context withCancel(Context parent) {
+        Context child = new Context(parent, parent.mHasDeadline, parent.mDeadlineNanos);
+        child.attach();
+        return child;
+    }
+
+    /**
+     * Same as withDeadline() with the deadline after the timeout from now.
+     */
+    static public Context withTimeout(Context parent, long timeout, TimeUnit unit) {
+        return withDeadline(parent, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * @param deadlineNanos in System.nanoTime()
+     * @return a child which is also cancelled with DEADLINE_EXCEEDED at the deadline.
+     */
+    static public Context withDeadline(Context parent, long deadlineNanos) {
+        if (parent.mHasDeadline && parent.mDeadlineNanos - deadlineNanos <= 0) {
+            // the parent expires first
+            return withCancel(parent);
+        }
+        Context child = new Context(parent, true, deadlineNanos);
+        if (!child.attach()) {
+            return child;
+        }
+        if (deadlineNanos - System.nanoTime() <= 0) {
+            child.cancel(DEADLINE_EXCEEDED, true);
+            return child;
+        }
+        DeadlineTimer timer = new DeadlineTimer(child);
+        // the lock of a context is taken before that of the wheel, also when the timer fires.
+        child.mLock.lock();
+        try {
+            if (child.mErr == null) {
+                child.mTimer = timer;
+                TimingWheel.shared().schedule(timer, deadlineNanos);
+            }
+        } finally {
+            child.mLock.unlock();
+        }
+        return child;
+    }
+
+    /**
+     * Link this context to the parent, or cancel it if the parent has been cancelled.
+     * @return false if cancelled.
+     */
+    private boolean attach() {
+        Context parent = mParent;
+        if (parent == sBackground) {
+            // never cancelled. no need to be linked.
+            return true;
+        }
+        Exception err;
+        parent.mLock.lock();
+        try {
+            err = parent.mErr;
+            if (err == null) {
+                mNextSibling = parent.mFirstChild;
+                if (mNextSibling != null) {
+                    mNextSibling.mPrevSibling = this;
+                }
+                parent.mFirstChild = this;
+                return true;
+            }
+        } finally {
+            parent.mLock.unlock();
+        }
+        cancel(err, false);
+        return false;
+    }
+
+    /**
+     * @return a channel which is closed when this context is cancelled. Never closed for background().
+     */
+    public Chan<Void> done() {
+        Chan<Void> done = mDone;
+        if (done != null) {
+            return done;
+        }
+        mLock.lock();
+        try {
+            if (mDone == null) {
+                Chan<Void> chan = Chan.create(0);
+                if (mErr != null) {
+                    chan.close();
+                }
+                mDone = chan;
+            }
+            return mDone;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return null until cancelled. CANCELED or DEADLINE_EXCEEDED after.
+     */
+    public Exception err() {
+        return mErr;
+    }
+
+    public boolean isDone() {
+        return mErr != null;
+    }
+
+    /**
+     * @return true if this context or an ancestor has a deadline.
+     */
+    public boolean hasDeadline() {
+        return mHasDeadline;
+    }
+
+    /**
+     * @return the earliest deadline of this context and its ancestors in System.nanoTime(). Valid only if
+     * hasDeadline() is true.
+     */
+    public long deadlineNanos() {
+        return mDeadlineNanos;
+    }
+
+    /**
+     * Cancel this context and its descendants. Does nothing if already cancelled. Call this when the work is done
+     * to release the timer and the link from the parent.
+     */
+    public void cancel() {
+        if (this == sBackground) {
+            throw new UnsupportedOperationException("background can't be cancelled");
+        }
+        cancel(CANCELED, true);
+    }
+
+    private void cancel(Exception err, boolean removeFromParent) {
+        ArrayList<Context> stack = new ArrayList<Context>();
+        if (!cancelSelf(err, stack)) {
+            return;
+        }
+        if (removeFromParent && mParent != null && mParent != sBackground) {
+            mParent.removeChild(this);
+        }
+        // the descendants are walked with a stack of sibling lists, since recursion overflows on a deep tree
+        while (!stack.isEmpty()) {
+            Context child = stack.remove(stack.size() - 1);
+            Context next = child.mNextSibling;
+            child.mPrevSibling = null;
+            child.mNextSibling = null;
+            if (next != null) {
+                stack.add(next);
+            }
+            child.cancelSelf(err, stack);
+        }
+    }
+
+    /**
+     * Cancel this context without the descendants, and push the list of the children to the stack.
+     * @return false if already cancelled.
+     */
+    private boolean cancelSelf(Exception err, ArrayList<Context> stack) {
+        Context children;
+        DeadlineTimer timer;
+        mLock.lock();
+        try {
+            if (mErr != null) {
+                return false;
+            }
+            // the children don't touch the sibling links from now on
+            mErr = err;
+            if (mDone != null) {
+                mDone.close();
+            }
+            children = mFirstChild;
+            mFirstChild = null;
+            timer = mTimer;
+            mTimer = null;
+        } finally {
+            mLock.unlock();
+        }
+
+        if (timer != null) {
+            TimingWheel.shared().cancel(timer);
+        }
+        if (children != null) {
+            stack.add(children);
+        }
+        return true;
+    }
+
+    private void removeChild(Context child) {
+        mLock.lock();
+        try {
+            if (mErr != null) {
+                // being cancelled. the list has been taken by cancel().
+                return;
+            }
+            if (child.mPrevSibling != null) {
+                child.mPrevSibling.mNextSibling = child.mNextSibling;
+            } else {
+                mFirstChild = child.mNextSibling;
+            }
+            if (child.mNextSibling != null) {
+                child.mNextSibling.mPrevSibling = child.mPrevSibling;
+            }
+            child.mPrevSibling = null;
+            child.mNextSibling = null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.Iterator;
+
+/**
+ * Channel of double values. Works the same as Chan&lt;Double&gt;, but the values are kept in a primitive array and are
+ * never boxed. Use Select.receiveDouble() and Select.sendDouble() with Select.getDouble().
+ */
+public class DoubleChan extends PrimitiveChan implements Iterable<Double> {
+
+    static public DoubleChan create(int depth) {
+        return new DoubleChan(depth, WaitStrategy.adaptive());
+    }
+
+    static public DoubleChan create(int depth, WaitStrategy strategy) {
+        return new DoubleChan(depth, strategy);
+    }
+
+    /**
+     * Result which can be reused. See receiveWithResult().
+     */
+    static public class MutableResult {
+        public double data;
+        public boolean ok;
+    }
+
+    private DoubleChan(int depth, WaitStrategy strategy) {
+        super(depth, strategy);
+    }
+
+    public void send(double data) {
+        sendBits(Double.doubleToRawLongBits(data));
+    }
+
+    /**
+     * @return If closed, returns 'end' of close(double end) or 0. When interrupted, returns 0.
+     */
+    public double receive() {
+        ThreadContext context = ThreadContext.get();
+        receiveBits(context);
+        return Double.longBitsToDouble(context.mReceivedBits);
+    }
+
+    /**
+     * @return result.ok
+     */
+    public boolean receiveWithResult(MutableResult result) {
+        ThreadContext context = ThreadContext.get();
+        result.ok = receiveBits(context);
+        result.data = Double.longBitsToDouble(context.mReceivedBits);
+        return result.ok;
+    }
+
+    public void close() {
+        close(0);
+    }
+
+    public void close(double end) {
+        closeBits(Double.doubleToRawLongBits(end));
+    }
+
+    /**
+     * Iterator which doesn't box the values.
+     */
+    public DoubleIterator doubleIterator() {
+        return new DoubleIterator(this);
+    }
+
+    /**
+     * Boxes every value. Use doubleIterator() to avoid it.
+     */
+    @Override
+    public Iterator<Double> iterator() {
+        final DoubleIterator it = doubleIterator();
+        return new Iterator<Double>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Double next() {
+                return it.nextDouble();
+            }
+
+            @Override
+            public void remove() {
+                throw new RuntimeException("remove() not supported");
+            }
+        };
+    }
+
+    static public class DoubleIterator extends BitsIterator {
+
+        DoubleIterator(DoubleChan chan) {
+            super(chan);
+        }
+
+        public double nextDouble() {
+            return Double.longBitsToDouble(nextBits());
+        }
+    }
+}
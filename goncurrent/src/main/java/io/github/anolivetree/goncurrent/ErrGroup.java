@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs tasks with Go.go() and waits for them, like errgroup.Group in Go. The first task which throws cancels the
+ * context of the group, so that the others can give up, and await() returns what it threw.
+ *
+ *     ErrGroup group = new ErrGroup(ctx);
+ *     for (final String url : urls) {
+ *         group.go(new ErrGroup.Task() {
+ *             public void run(Context ctx) throws Exception {
+ *                 fetch(ctx, url);
+ *             }
+ *         });
+ *     }
+ *     Throwable err = group.await();
+ *
+ * Thread safe.
+ */
+public class ErrGroup {
+
+    public interface Task {
+        /**
+         * @param ctx context of the group. Cancelled when another task fails.
+         */
+        void run(Context ctx) throws Exception;
+    }
+
+    private final Context mContext;
+    private final WaitGroup mGroup = new WaitGroup();
+    private final AtomicReference<Throwable> mErr = new AtomicReference<Throwable>();
+
+    public ErrGroup() {
+        this(Context.background());
+    }
+
+    /**
+     * @param parent the context of the group is a child of this.
+     */
+    public ErrGroup(Context parent) {
+        mContext = Context.withCancel(parent);
+    }
+
+    /**
+     * @return context passed to the tasks.
+     */
+    public Context context() {
+        return mContext;
+    }
+
+    public void go(final Task task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        mGroup.add(1);
+        Go.go(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run(mContext);
+                } catch (Throwable e) {
+                    if (mErr.compareAndSet(null, e)) {
+                        mContext.cancel();
+                    }
+                } finally {
+                    mGroup.done();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the first failure. null if none has failed yet.
+     */
+    public Throwable err() {
+        return mErr.get();
+    }
+
+    /**
+     * @return a channel which is closed when all the tasks have finished.
+     */
+    public Chan<Void> chan() {
+        return mGroup.chan();
+    }
+
+    /**
+     * Wait for all the tasks, and cancel the context.
+     * @return the first failure. null if all the tasks succeeded, or when interrupted. The interrupt status is set
+     * again in that case.
+     */
+    public Throwable await() {
+        if (!mGroup.await()) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        mContext.cancel();
+        return mErr.get();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts a task like the go statement.
+ *
+ *     Go.go(new Runnable() {
+ *         public void run() {
+ *             ch.send(compute());
+ *         }
+ *     });
+ *
+ * On JDK 21 and later each task runs on its own virtual thread, so that millions of them can block on channels at
+ * once. Channels block with ReentrantLock and LockSupport.park(), never inside synchronized, so a blocked task
+ * releases its carrier thread. On older JDKs the tasks run on a cached pool of daemon threads, which grows with
+ * the number of blocked tasks.
+ */
+public final class Go {
+
+    static private final Executor sExecutor;
+    static private final boolean sVirtual;
+
+    static {
+        ThreadFactory factory = virtualThreadFactory();
+        sVirtual = factory != null;
+        sExecutor = sVirtual ? new ThreadPerTaskExecutor(factory) : newDaemonPool();
+    }
+
+    private Go() {
+    }
+
+    static public void go(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        sExecutor.execute(task);
+    }
+
+    /**
+     * @return true if the tasks run on virtual threads.
+     */
+    static public boolean isVirtual() {
+        return sVirtual;
+    }
+
+    /**
+     * Thread.ofVirtual().factory() through reflection, since this library is built for Java 7.
+     * @return null if virtual threads are not available.
+     */
+    static private ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            // before JDK 21, or a preview feature which is not enabled
+            return null;
+        }
+    }
+
+    static private ExecutorService newDaemonPool() {
+        final AtomicInteger num = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "goncurrent-go-" + num.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    static private final class ThreadPerTaskExecutor implements Executor {
+        private final ThreadFactory mFactory;
+
+        ThreadPerTaskExecutor(ThreadFactory factory) {
+            mFactory = factory;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            mFactory.newThread(task).start();
+        }
+    }
+}
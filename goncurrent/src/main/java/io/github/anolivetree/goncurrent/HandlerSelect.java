@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Select which calls the handler of the selected case, like the body of a case in Go. The cases and the handlers
+ * are added once and selected repeatedly without allocation. Not thread safe.
+ *
+ *     HandlerSelect select = new HandlerSelect();
+ *     select.onReceive(ch1, new HandlerSelect.ReceiveHandler&lt;Integer&gt;() {
+ *         public void onReceive(Integer data) { ... }
+ *     });
+ *     while (true) {
+ *         select.select();
+ *     }
+ */
+public class HandlerSelect {
+
+    public interface ReceiveHandler<T> {
+        /**
+         * @param data received data. 'end' of close() when the channel is closed.
+         */
+        void onReceive(T data);
+    }
+
+    public interface SendHandler<T> {
+        /**
+         * Called before each select to get the data to send, for every enabled send case, whether the case is
+         * selected or not. A blocked send case has to hand the data to the channel before it knows. The data of a
+         * case which is not selected is dropped, so this must not have side effects: e.g. peek a queue here, and
+         * remove the element in onSent().
+         */
+        T dataToSend();
+
+        /**
+         * Called when the data returned by dataToSend() has been sent.
+         */
+        void onSent(T data);
+    }
+
+    final SelectCases mCases;
+    // ReceiveHandler or SendHandler. indexed by the case.
+    private Object[] mHandlers = new Object[4];
+    // indices of the send cases
+    private int[] mSendCases = new int[4];
+    private int mNumSendCases = 0;
+
+    public HandlerSelect() {
+        this(new SelectCases());
+    }
+
+    /**
+     * Select over the given cases, e.g. TrackedSelectCases for a large number of channels. Add the cases through
+     * this object.
+     */
+    public HandlerSelect(SelectCases cases) {
+        if (cases.size() > 0) {
+            throw new IllegalArgumentException("cases are not empty");
+        }
+        mCases = cases;
+    }
+
+    /**
+     * @return index of the case.
+     */
+    public <T> int onReceive(Chan<T> chan, ReceiveHandler<? super T> handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        int index = mCases.addReceive(chan);
+        setHandler(index, handler);
+        return index;
+    }
+
+    /**
+     * @return index of the case.
+     */
+    public <T> int onSend(Chan<T> chan, SendHandler<T> handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        int index = mCases.addSend(chan, null);
+        setHandler(index, handler);
+        if (mNumSendCases == mSendCases.length) {
+            int[] sendCases = new int[mNumSendCases * 2];
+            System.arraycopy(mSendCases, 0, sendCases, 0, mNumSendCases);
+            mSendCases = sendCases;
+        }
+        mSendCases[mNumSendCases++] = index;
+        return index;
+    }
+
+    private void setHandler(int index, Object handler) {
+        if (index >= mHandlers.length) {
+            Object[] handlers = new Object[Math.max(index + 1, mHandlers.length * 2)];
+            System.arraycopy(mHandlers, 0, handlers, 0, mHandlers.length);
+            mHandlers = handlers;
+        }
+        mHandlers[index] = handler;
+    }
+
+    /**
+     * A disabled case is never selected. See SelectCases.setEnabled().
+     */
+    public void setEnabled(int index, boolean enabled) {
+        mCases.setEnabled(index, enabled);
+    }
+
+    /**
+     * Remove all the cases.
+     */
+    public void clear() {
+        mCases.clear();
+        for (int i = 0; i < mHandlers.length; i++) {
+            mHandlers[i] = null;
+        }
+        mNumSendCases = 0;
+    }
+
+    /**
+     * Wait until one of the cases is ready and call its handler.
+     * @return index of the case. -1 when interrupted.
+     */
+    public int select() {
+        prepareSend();
+        return dispatch(mCases.select());
+    }
+
+    /**
+     * @return index of the case. -1 when timed out or interrupted.
+     */
+    public int select(long timeout, TimeUnit unit) {
+        prepareSend();
+        return dispatch(mCases.select(timeout, unit));
+    }
+
+    /**
+     * @return index of the case. -1 when no channel is ready.
+     */
+    public int selectNonblock() {
+        prepareSend();
+        return dispatch(mCases.selectNonblock());
+    }
+
+    private void prepareSend() {
+        for (int i = 0; i < mNumSendCases; i++) {
+            int index = mSendCases[i];
+            if (mCases.mEnabled[index]) {
+                mCases.mSendData[index] = ((SendHandler<?>) mHandlers[index]).dataToSend();
+            }
+        }
+    }
+
+    /**
+     * Called when a receive case has found its channel closed.
+     * @return true not to call the handler.
+     */
+    boolean onClosed(int index) {
+        return false;
+    }
+
+    private int dispatch(int index) {
+        if (index < 0) {
+            return index;
+        }
+        Object data = mCases.mSendData[index];
+        if (data == ThreadContext.sReceiveFlag) {
+            if (!mCases.mOk && onClosed(index)) {
+                return index;
+            }
+            // the data came from the channel the handler was added with
+            @SuppressWarnings("unchecked")
+            ReceiveHandler<Object> handler = (ReceiveHandler<Object>) mHandlers[index];
+            handler.onReceive(mCases.mData);
+        } else {
+            // the data came from dataToSend() of the same handler
+            @SuppressWarnings("unchecked")
+            SendHandler<Object> handler = (SendHandler<Object>) mHandlers[index];
+            handler.onSent(data);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.Iterator;
+
+/**
+ * Channel of int values. Works the same as Chan&lt;Integer&gt;, but the values are kept in a primitive array and are
+ * never boxed. Use Select.receiveInt() and Select.sendInt() with Select.getInt().
+ */
+public class IntChan extends PrimitiveChan implements Iterable<Integer> {
+
+    static public IntChan create(int depth) {
+        return new IntChan(depth, WaitStrategy.adaptive());
+    }
+
+    static public IntChan create(int depth, WaitStrategy strategy) {
+        return new IntChan(depth, strategy);
+    }
+
+    /**
+     * Result which can be reused. See receiveWithResult().
+     */
+    static public class MutableResult {
+        public int data;
+        public boolean ok;
+    }
+
+    private IntChan(int depth, WaitStrategy strategy) {
+        super(depth, strategy);
+    }
+
+    public void send(int data) {
+        sendBits(data);
+    }
+
+    /**
+     * @return If closed, returns 'end' of close(int end) or 0. When interrupted, returns 0.
+     */
+    public int receive() {
+        ThreadContext context = ThreadContext.get();
+        receiveBits(context);
+        return (int) context.mReceivedBits;
+    }
+
+    /**
+     * @return result.ok
+     */
+    public boolean receiveWithResult(MutableResult result) {
+        ThreadContext context = ThreadContext.get();
+        result.ok = receiveBits(context);
+        result.data = (int) context.mReceivedBits;
+        return result.ok;
+    }
+
+    public void close() {
+        close(0);
+    }
+
+    public void close(int end) {
+        closeBits(end);
+    }
+
+    /**
+     * Iterator which doesn't box the values.
+     */
+    public IntIterator intIterator() {
+        return new IntIterator(this);
+    }
+
+    /**
+     * Boxes every value. Use intIterator() to avoid it.
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        final IntIterator it = intIterator();
+        return new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return it.nextInt();
+            }
+
+            @Override
+            public void remove() {
+                throw new RuntimeException("remove() not supported");
+            }
+        };
+    }
+
+    static public class IntIterator extends BitsIterator {
+
+        IntIterator(IntChan chan) {
+            super(chan);
+        }
+
+        public int nextInt() {
+            return (int) nextBits();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+/**
+ * Bounded lock-free buffer of a channel. null is a valid element.
+ *
+ * offer() and poll() must make their change visible with a volatile store. Chan reads the number of waiting
+ * peers right after them, and the read must not be reordered before the store or a wakeup is lost.
+ *
+ * After close(), an offer() either has succeeded before close() or fails. The data accepted before close() are left
+ * for the consumers, and isDrained() tells when they have all been taken.
+ */
+abstract class LockFreeRing {
+
+    // set in the producer position by close() of MpmcRing. The positions never get this large.
+    static final long CLOSED = 1L << 62;
+
+    /**
+     * @return false if full or closed.
+     */
+    abstract boolean offer(Object data);
+
+    /**
+     * Make offer() fail from now on. Called by any thread.
+     */
+    abstract void close();
+
+    abstract boolean isClosed();
+
+    /**
+     * @return true if closed and all the data offered before close() have been polled. poll() may find the ring
+     * empty before this becomes true, while a producer which has taken a position is still writing its data.
+     */
+    abstract boolean isDrained();
+
+    /**
+     * @return Chan.sWouldBlock if empty.
+     */
+    abstract Object poll();
+
+    /**
+     * @return true if poll() would fail now.
+     */
+    abstract boolean isEmpty();
+
+    /**
+     * @return true if offer() would fail now.
+     */
+    abstract boolean isFull();
+
+    abstract int size();
+}
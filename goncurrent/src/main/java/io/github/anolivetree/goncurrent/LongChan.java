@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.Iterator;
+
+/**
+ * Channel of long values. Works the same as Chan&lt;Long&gt;, but the values are kept in a primitive array and are
+ * never boxed. Use Select.receiveLong() and Select.sendLong() with Select.getLong().
+ */
+public class LongChan extends PrimitiveChan implements Iterable<Long> {
+
+    static public LongChan create(int depth) {
+        return new LongChan(depth, WaitStrategy.adaptive());
+    }
+
+    static public LongChan create(int depth, WaitStrategy strategy) {
+        return new LongChan(depth, strategy);
+    }
+
+    /**
+     * Result which can be reused. See receiveWithResult().
+     */
+    static public class MutableResult {
+        public long data;
+        public boolean ok;
+    }
+
+    private LongChan(int depth, WaitStrategy strategy) {
+        super(depth, strategy);
+    }
+
+    public void send(long data) {
+        sendBits(data);
+    }
+
+    /**
+     * @return If closed, returns 'end' of close(long end) or 0. When interrupted, returns 0.
+     */
+    public long receive() {
+        ThreadContext context = ThreadContext.get();
+        receiveBits(context);
+        return context.mReceivedBits;
+    }
+
+    /**
+     * @return result.ok
+     */
+    public boolean receiveWithResult(MutableResult result) {
+        ThreadContext context = ThreadContext.get();
+        result.ok = receiveBits(context);
+        result.data = context.mReceivedBits;
+        return result.ok;
+    }
+
+    public void close() {
+        close(0);
+    }
+
+    public void close(long end) {
+        closeBits(end);
+    }
+
+    /**
+     * Iterator which doesn't box the values.
+     */
+    public LongIterator longIterator() {
+        return new LongIterator(this);
+    }
+
+    /**
+     * Boxes every value. Use longIterator() to avoid it.
+     */
+    @Override
+    public Iterator<Long> iterator() {
+        final LongIterator it = longIterator();
+        return new Iterator<Long>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Long next() {
+                return it.nextLong();
+            }
+
+            @Override
+            public void remove() {
+                throw new RuntimeException("remove() not supported");
+            }
+        };
+    }
+
+    static public class LongIterator extends BitsIterator {
+
+        LongIterator(LongChan chan) {
+            super(chan);
+        }
+
+        public long nextLong() {
+            return nextBits();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring for any number of producers and consumers (Dmitry Vyukov's bounded MPMC queue).
+ *
+ * Each slot has a sequence number. A slot at position pos is free for the producer when its sequence is 2 * pos,
+ * and holds data for the consumer when its sequence is 2 * pos + 1. The consumer sets it to 2 * (pos + capacity)
+ * to free it for the next lap. The sequence is doubled so that a ring of capacity 1 can tell "holds data" from
+ * "free for the next lap".
+ */
+final class MpmcRing extends LockFreeRing {
+
+    private final Object[] mBuffer;
+    private final AtomicLongArray mSequence;
+    private final int mCapacity;
+    // -1 if the capacity is not a power of two
+    private final int mMask;
+
+    private final AtomicLong mEnqueuePos = new AtomicLong();
+    private final AtomicLong mDequeuePos = new AtomicLong();
+
+    MpmcRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        mCapacity = capacity;
+        mMask = (capacity & (capacity - 1)) == 0 ? capacity - 1 : -1;
+        mBuffer = new Object[capacity];
+        mSequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequence.set(i, 2L * i);
+        }
+    }
+
+    private int index(long pos) {
+        if (mMask >= 0) {
+            return (int) pos & mMask;
+        }
+        return (int) (pos % mCapacity);
+    }
+
+    @Override
+    boolean offer(Object data) {
+        long pos = mEnqueuePos.get();
+        int index;
+        while (true) {
+            if ((pos & CLOSED) != 0) {
+                return false;
+            }
+            index = index(pos);
+            long dif = mSequence.get(index) - 2 * pos;
+            if (dif == 0) {
+                if (mEnqueuePos.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = mEnqueuePos.get();
+            } else if (dif < 0) {
+                // the slot still holds the data of the previous lap
+                return false;
+            } else {
+                // another producer took this position
+                pos = mEnqueuePos.get();
+            }
+        }
+        mBuffer[index] = data;
+        mSequence.set(index, 2 * pos + 1);
+        return true;
+    }
+
+    @Override
+    Object poll() {
+        long pos = mDequeuePos.get();
+        int index;
+        while (true) {
+            index = index(pos);
+            long dif = mSequence.get(index) - (2 * pos + 1);
+            if (dif == 0) {
+                if (mDequeuePos.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = mDequeuePos.get();
+            } else if (dif < 0) {
+                // not written yet
+                return Chan.sWouldBlock;
+            } else {
+                // another consumer took this position
+                pos = mDequeuePos.get();
+            }
+        }
+        Object data = mBuffer[index];
+        mBuffer[index] = null;
+        mSequence.set(index, 2 * (pos + mCapacity));
+        return data;
+    }
+
+    @Override
+    void close() {
+        while (true) {
+            long pos = mEnqueuePos.get();
+            if ((pos & CLOSED) != 0 || mEnqueuePos.compareAndSet(pos, pos | CLOSED)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    boolean isClosed() {
+        return (mEnqueuePos.get() & CLOSED) != 0;
+    }
+
+    @Override
+    boolean isDrained() {
+        long pos = mEnqueuePos.get();
+        return (pos & CLOSED) != 0 && mDequeuePos.get() >= (pos & ~CLOSED);
+    }
+
+    @Override
+    boolean isEmpty() {
+        long pos = mDequeuePos.get();
+        return mSequence.get(index(pos)) - (2 * pos + 1) < 0;
+    }
+
+    @Override
+    boolean isFull() {
+        long pos = mEnqueuePos.get() & ~CLOSED;
+        return mSequence.get(index(pos)) - 2 * pos < 0;
+    }
+
+    @Override
+    int size() {
+        long head = mDequeuePos.get();
+        long size = (mEnqueuePos.get() & ~CLOSED) - head;
+        if (size < 0) {
+            return 0;
+        }
+        return size > mCapacity ? mCapacity : (int) size;
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Base of IntChan, LongChan and DoubleChan. Values are kept as raw long bits in a long[] ring, and are handed to a
+ * waiting thread through Waiter.mBits and ThreadContext.mReceivedBits, so they are never boxed.
+ */
+abstract class PrimitiveChan extends BaseChan {
+
+    // returned by receive(ThreadContext, boolean) when a value is stored to ThreadContext.mReceivedBits
+    static final Object sReceived = new Object();
+
+    private final int mDepth;
+    private final long[] mData;
+    private long mEnd = 0;
+    private int mDataR = 0;
+    private int mDataW = 0;
+    // value taken by takeFromFirstSender()
+    private long mTakenBits;
+
+    PrimitiveChan(int depth, WaitStrategy strategy) {
+        super(strategy);
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth < 0");
+        }
+        mDepth = depth;
+        mData = new long[depth];
+    }
+
+    final void sendBits(long bits) {
+        mLock.lock();
+        try {
+            if (Config.DEBUG_CHECK_STATE) {
+                ThreadContext.get().ensureHasNoChan();
+            }
+            send(bits, false);
+        } finally {
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Blocking receive. The value is stored to context.mReceivedBits. 'end' of close() when closed, 0 when
+     * interrupted.
+     * @return false if closed or interrupted.
+     */
+    final boolean receiveBits(ThreadContext context) {
+        mLock.lock();
+        try {
+            if (Config.DEBUG_CHECK_STATE) {
+                context.ensureHasNoChan();
+            }
+            return receive(context, false) == sReceived;
+        } finally {
+            if (mLock.isHeldByCurrentThread()) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * mLock must be held. It is released while waiting, and is not taken again when a receiver has taken the data.
+     * @return false if it would block, or when interrupted.
+     */
+    final boolean send(long bits, boolean nonblock) {
+        while (true) {
+
+            if (mIsClosed) {
+                throw new SendOnClosedException();
+            }
+
+            // try to make space in the queue
+            while (mDataNum > 0 && passDataToFirstReceiverAndWakeup(mData[mDataR])) {
+                setDataNum(mDataNum - 1);
+                mDataR++;
+                if (mDataR >= mDepth) {
+                    mDataR = 0;
+                }
+            }
+
+            if (passDataToFirstReceiverAndWakeup(bits)) {
+                return true;
+            }
+
+            if (mDataNum < mDepth) {
+                mData[mDataW] = bits;
+                setDataNum(mDataNum + 1);
+                mDataW++;
+                if (mDataW >= mDepth) {
+                    mDataW = 0;
+                }
+                signalReceiveReady();
+                return true;
+            }
+
+            if (nonblock) {
+                return false;
+            }
+
+            // wait
+            ThreadContext context = null;
+            try {
+                context = ThreadContext.get();
+                if (Config.DEBUG_CHECK_STATE) {
+                    context.ensureHasNoChan();
+                }
+                Waiter waiter = context.addSendBits(this, bits);
+                context.prepareToWait(waitStrategy());
+                mSenders.add(waiter);
+                signalReceiveReady();
+
+                if (!await(context)) {
+                    // interrupted
+                    mSenders.remove(waiter);
+                    return false;
+                }
+
+                if (context.mUnblockedChanIndex != -1) {
+                    // woken up by receiver
+                    return true;
+                }
+                // woken up by close.
+                mLock.lock();
+            } finally {
+                context.clearChan();
+            }
+        }
+    }
+
+    /**
+     * mLock must be held. It is released while waiting, and is not taken again when a sender has handed the data.
+     * @return sReceived with the value in context.mReceivedBits, Chan.sClosed with 'end' of close() in it,
+     * Chan.sInterrupted, or Chan.sWouldBlock if nonblock and it would block.
+     */
+    final Object receive(ThreadContext context, boolean nonblock) {
+        while (true) {
+
+            boolean hasRet = false;
+            long data = 0;
+
+            // receive from queue
+            if (mDataNum > 0) {
+                data = mData[mDataR];
+                hasRet = true;
+                setDataNum(mDataNum - 1);
+                mDataR++;
+                if (mDataR >= mDepth) {
+                    mDataR = 0;
+                }
+                signalSendReady();
+            }
+
+            // receive directly from the first sender
+            if (!hasRet && mSenders.size() > 0 && takeFromFirstSender()) {
+                data = mTakenBits;
+                hasRet = true;
+            }
+
+            // copy data from senders to the queue
+            while (mSenders.size() > 0 && mDataNum < mDepth && takeFromFirstSender()) {
+                mData[mDataW] = mTakenBits;
+                setDataNum(mDataNum + 1);
+                mDataW++;
+                if (mDataW >= mDepth) {
+                    mDataW = 0;
+                }
+            }
+
+            if (hasRet) {
+                context.mReceivedBits = data;
+                return sReceived;
+            }
+
+            if (mIsClosed) {
+                context.mReceivedBits = mEnd;
+                return Chan.sClosed;
+            }
+
+            if (nonblock) {
+                return Chan.sWouldBlock;
+            }
+
+            try {
+                Waiter waiter = context.addReceiveChan(this);
+                context.prepareToWait(waitStrategy());
+                mReceivers.add(waiter);
+                signalSendReady();
+
+                if (!await(context)) {
+                    // interrupted
+                    mReceivers.remove(waiter);
+                    context.mReceivedBits = 0;
+                    return Chan.sInterrupted;
+                }
+
+                if (context.mUnblockedChanIndex != -1) {
+                    // the sender has stored the value to context.mReceivedBits
+                    return sReceived;
+                }
+                // woken up by close()
+                mLock.lock();
+            } finally {
+                context.clearChan();
+            }
+        }
+    }
+
+    /**
+     * Hand the value to the first receiver which is still waiting.
+     * @return false if there's no waiting receiver.
+     */
+    private boolean passDataToFirstReceiverAndWakeup(long bits) {
+        Waiter waiter;
+        while ((waiter = mReceivers.removeFirst()) != null) {
+            if (waiter.mContext.markReceiverUnblocked(waiter, bits)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the value from the first sender which is still waiting and store it to mTakenBits.
+     * @return false if there's no waiting sender.
+     */
+    private boolean takeFromFirstSender() {
+        Waiter waiter;
+        while ((waiter = mSenders.removeFirst()) != null) {
+            // read before waking up the sender. it reuses the waiter after that.
+            long bits = waiter.mBits;
+            if (waiter.mContext.markSenderUnblocked(waiter) != Chan.sWouldBlock) {
+                mTakenBits = bits;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean receiveForSelect(SelectCases select, ThreadContext context) {
+        Object received = receive(context, true);
+        if (received == Chan.sWouldBlock) {
+            return false;
+        }
+        select.mData = null;
+        select.mOk = received != Chan.sClosed;
+        select.mBits = context.mReceivedBits;
+        return true;
+    }
+
+    @Override
+    boolean sendForSelect(Object data, long bits) {
+        return send(bits, true);
+    }
+
+    final void closeBits(long end) {
+        mLock.lock();
+        if (!mIsClosed) {
+            mEnd = end;
+            mIsClosed = true;
+            wakeupAllWaiters();
+        }
+        mLock.unlock();
+    }
+
+    public int length() {
+        return mDataNum;
+    }
+
+    public int capacity() {
+        return mDepth;
+    }
+
+    /**
+     * Iterates until the channel is closed, without boxing. Subclasses add a typed next method.
+     */
+    static abstract class BitsIterator {
+
+        final private PrimitiveChan mChan;
+        private boolean mHasData = false;
+        private long mData = 0;
+
+        BitsIterator(PrimitiveChan chan) {
+            mChan = chan;
+        }
+
+        public boolean hasNext() {
+            if (!mHasData) {
+                read();
+            }
+            return mHasData;
+        }
+
+        final long nextBits() {
+            if (!mHasData) {
+                read();
+            }
+            if (!mHasData) {
+                throw new NoSuchElementException();
+            }
+            mHasData = false;
+            return mData;
+        }
+
+        private void read() {
+            ThreadContext context = ThreadContext.get();
+            mHasData = mChan.receiveBits(context);
+            mData = mHasData ? context.mReceivedBits : 0;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Owns goroutines and channels, so that a pipeline is shut down as a whole.
+ *
+ *     try (Scope scope = new Scope()) {
+ *         Chan&lt;Integer&gt; ch = scope.newChan(10);
+ *         scope.go(producer(ch));
+ *         scope.go(consumer(ch));
+ *         ...
+ *     } // closes ch and joins the goroutines
+ *
+ * Shutting down cancels the context passed to the goroutines and closes the owned channels, which wakes up the
+ * goroutines blocked on them. It happens on close(), or when a goroutine throws. What the goroutines throw after
+ * that, e.g. from sending to a closed channel, is ignored. close() waits for the goroutines up to the join
+ * timeout, interrupts the ones still running, waits once more, and throws the first failure.
+ * Thread safe.
+ */
+public class Scope implements AutoCloseable {
+
+    /**
+     * Thrown by close() when a goroutine has failed. The cause is what it threw.
+     */
+    static public class FailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FailedException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private final Context mContext;
+    private final long mJoinTimeoutNanos;
+    private final WaitGroup mGroup = new WaitGroup();
+    private final AtomicReference<Throwable> mErr = new AtomicReference<Throwable>();
+
+    // guards the fields below
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final ArrayList<Chan<?>> mChans = new ArrayList<Chan<?>>();
+    // threads running the goroutines. A goroutine leaves before it finishes, so that its thread isn't interrupted
+    // after being reused by the pool.
+    private final HashSet<Thread> mThreads = new HashSet<Thread>();
+    private volatile boolean mShutdown = false;
+
+    public Scope() {
+        this(Context.background());
+    }
+
+    /**
+     * Join timeout of 1 second.
+     */
+    public Scope(Context parent) {
+        this(parent, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param joinTimeout how long close() waits for the goroutines, before and after interrupting them.
+     */
+    public Scope(Context parent, long joinTimeout, TimeUnit unit) {
+        mContext = Context.withCancel(parent);
+        mJoinTimeoutNanos = unit.toNanos(joinTimeout);
+    }
+
+    /**
+     * @return context passed to the goroutines. Cancelled on shutdown.
+     */
+    public Context context() {
+        return mContext;
+    }
+
+    /**
+     * @return a channel closed on shutdown.
+     */
+    public <T> Chan<T> newChan(int depth) {
+        return own(Chan.<T>create(depth));
+    }
+
+    /**
+     * Close the channel on shutdown. Closed right away if already shut down.
+     * @return chan
+     */
+    public <T> Chan<T> own(Chan<T> chan) {
+        mLock.lock();
+        try {
+            if (!mShutdown) {
+                mChans.add(chan);
+                return chan;
+            }
+        } finally {
+            mLock.unlock();
+        }
+        chan.close();
+        return chan;
+    }
+
+    /**
+     * Run the task with Go.go(). The first task which throws shuts down the scope.
+     */
+    public void go(final ErrGroup.Task task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        mLock.lock();
+        try {
+            if (mShutdown) {
+                throw new IllegalStateException("scope is shut down");
+            }
+            mGroup.add(1);
+        } finally {
+            mLock.unlock();
+        }
+        Go.go(new Runnable() {
+            @Override
+            public void run() {
+                Thread thread = Thread.currentThread();
+                mLock.lock();
+                mThreads.add(thread);
+                mLock.unlock();
+                try {
+                    task.run(mContext);
+                } catch (Throwable e) {
+                    if (!mShutdown && mErr.compareAndSet(null, e)) {
+                        shutdown();
+                    }
+                } finally {
+                    mLock.lock();
+                    mThreads.remove(thread);
+                    mLock.unlock();
+                    // an interrupt by close() which arrived after the task returned
+                    Thread.interrupted();
+                    mGroup.done();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the first failure. null if none.
+     */
+    public Throwable err() {
+        return mErr.get();
+    }
+
+    /**
+     * Wait until all the goroutines finish without shutting down.
+     * @return false when interrupted.
+     */
+    public boolean await() {
+        return mGroup.await();
+    }
+
+    /**
+     * Cancel the context and close the owned channels. The goroutines are not waited for.
+     */
+    public void shutdown() {
+        ArrayList<Chan<?>> chans;
+        mLock.lock();
+        try {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            chans = new ArrayList<Chan<?>>(mChans);
+            mChans.clear();
+        } finally {
+            mLock.unlock();
+        }
+        mContext.cancel();
+        for (int i = 0; i < chans.size(); i++) {
+            chans.get(i).close();
+        }
+    }
+
+    /**
+     * Shut down and join the goroutines.
+     * @throws FailedException if a goroutine has failed.
+     * @throws IllegalStateException if some goroutines are still running after being interrupted.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        boolean joined = join();
+        if (!joined) {
+            mLock.lock();
+            try {
+                for (Thread thread : mThreads) {
+                    thread.interrupt();
+                }
+            } finally {
+                mLock.unlock();
+            }
+            joined = join();
+        }
+        Throwable err = mErr.get();
+        if (err != null) {
+            throw new FailedException(err);
+        }
+        if (!joined) {
+            throw new IllegalStateException(mGroup.count() + " goroutines are still running");
+        }
+    }
+
+    /**
+     * @return false if the goroutines didn't finish in the join timeout.
+     */
+    private boolean join() {
+        if (mGroup.count() == 0) {
+            return true;
+        }
+        // the channel is closed, and the result is not null, when the counter reaches zero
+        return mGroup.chan().receive(mJoinTimeoutNanos, TimeUnit.NANOSECONDS) != null;
+    }
+}
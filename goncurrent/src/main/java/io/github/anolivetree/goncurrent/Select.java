@@ -15,16 +15,16 @@
  */
 package io.github.anolivetree.goncurrent;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Builds the cases of a select. The cases are cleared after each select. Use SelectCases to select the same cases
+ * repeatedly.
+ */
 public class Select {
 
-    private ArrayList<Chan> mChan = new ArrayList<Chan>();
-    private ArrayList<Object> mSendData = new ArrayList<Object>();
-
-    private Object mData;
-    private final Random rand = new Random();
+    // reused across calls. cleared after each select.
+    private final SelectCases mCases = new SelectCases();
 
     /**
      * Add a channel to receive from.
@@ -32,9 +32,7 @@ public class Select {
      * @return
      */
     public Select receive(Chan chan) {
-        mChan.add(chan);
-        mSendData.add(ThreadContext.sReceiveFlag);
-        return this;
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
     }
 
     /**
@@ -44,167 +42,99 @@ public class Select {
      * @return
      */
     public Select send(Chan chan, Object data) {
-        mChan.add(chan);
-        mSendData.add(data);
-        return this;
+        return addCase(chan, data, 0);
     }
 
     /**
-     *
-     * @return index of the channel read or written. -1 when interrupted.
+     * Add a primitive channel to receive from. Get the value with getInt(), getLong() or getDouble().
      */
-    public int select() {
-        return selectInternal(false);
+    public Select receiveInt(IntChan chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
+    }
+
+    public Select receiveLong(LongChan chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
+    }
+
+    public Select receiveDouble(DoubleChan chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
     }
 
     /**
-     *
-     * @return index of the channel read or written. -1 when no channel is ready.
+     * Add a primitive channel to send to and a value. The value is not boxed.
      */
-    public int selectNonblock() {
-        return selectInternal(true);
+    public Select sendInt(IntChan chan, int data) {
+        return addCase(chan, ThreadContext.sSendBitsFlag, data);
     }
 
-    private int selectInternal(boolean nonblock) {
-        mData = null;
-        Chan.sLock.lock();
+    public Select sendLong(LongChan chan, long data) {
+        return addCase(chan, ThreadContext.sSendBitsFlag, data);
+    }
 
-        ThreadContext context = null;
-        try {
-            context = ThreadContext.get();
-            if (Config.DEBUG_PRINT) {
-                System.out.println("call select context=" + context);
-            }
-            if (Config.DEBUG_CHECK_STATE) {
-                context.ensureHasNoChan();
-            }
-            context.setChanAndData(mChan, mSendData);
-            if (Config.DEBUG_PRINT) {
-                System.out.println(" nchan = " + mChan.size());
-            }
-            mChan = new ArrayList<Chan>();
-            mSendData = new ArrayList<Object>();
-
-            while (true) {
-
-                // find a channel which is ready to send or receive
-                int index = findAvailableChanRandomAndProcess(context);
-                if (index >= 0) {
-                    if (Config.DEBUG_PRINT) {
-                        System.out.printf("select: found available chan. i=%d\n", index);
-                    }
-                    return index;
-                }
-
-                if (nonblock) {
-                    return -1;
-                }
-
-                // no channel is available. Add self to waiting list of all channels.
-                addToAllChan(context);
-
-                // wait
-                try {
-                    if (Config.DEBUG_PRINT) {
-                        System.out.printf("select: waiting\n");
-                    }
-                    context.mCond.await();
-                    if (Config.DEBUG_PRINT) {
-                        System.out.printf("select: woken up\n");
-                    }
-                } catch (InterruptedException e) {
-                    if (Config.DEBUG_PRINT) {
-                        System.out.printf("select: interrupted\n");
-                    }
-                    context.removeFromAllChannel();
-                    return -1;
-                }
-
-                // woken up by someone. might be close()
-
-                if (context.mUnblockedChanIndex == -1) {
-                    // wokenup by close()
-                    if (Config.DEBUG_PRINT) {
-                        System.out.printf("select: woken up by close(). remove context from all channel\n");
-                    }
-                    context.removeFromAllChannel();
-                    continue;
-                }
-
-                // no need to call context.removeFromAllChannle() because it is called by a peer
-                if (context.mChan.size() > 0) {
-                    throw new RuntimeException("chan exist.");
-                }
-
-                mData = context.mReceivedData;
-                int mTargetIndex = context.mUnblockedChanIndex;
-                if (mTargetIndex == -1) {
-                    throw new RuntimeException("illegal state");
-                }
-                return mTargetIndex;
-            }
+    public Select sendDouble(DoubleChan chan, double data) {
+        return addCase(chan, ThreadContext.sSendBitsFlag, Double.doubleToRawLongBits(data));
+    }
+
+    /**
+     * Select the first ready case in the order they were added instead of a random one. See SelectCases.setPriority().
+     * Kept across selects.
+     */
+    public Select setPriority(boolean priority, int starvationLimit) {
+        mCases.setPriority(priority, starvationLimit);
+        return this;
+    }
 
+    private Select addCase(BaseChan chan, Object data, long bits) {
+        mCases.addCase(chan, data, bits);
+        return this;
+    }
+
+    /**
+     *
+     * @return index of the channel read or written. -1 when interrupted.
+     */
+    public int select() {
+        try {
+            return mCases.select();
         } finally {
-            context.clearChan();
-            Chan.sLock.unlock();
+            mCases.clear();
         }
     }
 
-
-    private int findAvailableChanRandomAndProcess(ThreadContext context) {
-        int numChan = context.mChan.size();
-        for (int n = 0, i = rand.nextInt(numChan); n < numChan; n++) {
-            Chan ch = context.mChan.get(i);
-            if (ch != null) {
-                Object data = context.mSendData.get(i);
-                if (data == ThreadContext.sReceiveFlag) {
-                    Object peek = ch.receive(true);
-                    if (peek != null) {
-                        mData = ((Chan.Result)peek).data;
-                        return i;
-                    }
-                } else {
-                    boolean dontBlock = ch.send(data, true);
-                    if (dontBlock) {
-                        mData = null;
-                        return i;
-                    }
-                }
-            }
-
-            i++;
-            if (i >= numChan) {
-                i = 0;
-            }
+    /**
+     * Same as select() but gives up after the timeout.
+     * @return index of the channel read or written. -1 when timed out or interrupted.
+     */
+    public int select(long timeout, TimeUnit unit) {
+        try {
+            return mCases.select(timeout, unit);
+        } finally {
+            mCases.clear();
         }
-        return -1;
     }
 
-    private void addToAllChan(ThreadContext context) {
-        if (Config.DEBUG_PRINT) {
-            System.out.println("select: adding context to all channels");
+    /**
+     * Same as select() but gives up at the deadline.
+     * @param deadlineNanos in System.nanoTime()
+     * @return index of the channel read or written. -1 when timed out or interrupted.
+     */
+    public int selectUntil(long deadlineNanos) {
+        try {
+            return mCases.selectUntil(deadlineNanos);
+        } finally {
+            mCases.clear();
         }
-        int numChan = context.mChan.size();
-        for (int i = 0; i < numChan; i++) {
-            Chan ch = context.mChan.get(i);
-            if (Config.DEBUG_PRINT) {
-                System.out.println(" ch=" + ch);
-            }
-            if (ch == null) {
-                continue;
-            }
-            Object data = context.mSendData.get(i);
-            if (data == ThreadContext.sReceiveFlag) {
-                if (Config.DEBUG_PRINT) {
-                    System.out.printf("  added to receiverList\n");
-                }
-                ch.addToReceiverList(context);
-            } else {
-                if (Config.DEBUG_PRINT) {
-                    System.out.printf("  added to senderList\n");
-                }
-                ch.addToSenderList(context);
-            }
+    }
+
+    /**
+     *
+     * @return index of the channel read or written. -1 when no channel is ready.
+     */
+    public int selectNonblock() {
+        try {
+            return mCases.selectNonblock();
+        } finally {
+            mCases.clear();
         }
     }
 
@@ -213,7 +143,28 @@ public class Select {
      * @return
      */
     public Object getData() {
-        return mData;
+        return mCases.mData;
+    }
+
+    /**
+     * Get the value received from an IntChan. Call this after select() returns.
+     */
+    public int getInt() {
+        return (int) mCases.mBits;
+    }
+
+    /**
+     * Get the value received from a LongChan. Call this after select() returns.
+     */
+    public long getLong() {
+        return mCases.mBits;
+    }
+
+    /**
+     * Get the value received from a DoubleChan. Call this after select() returns.
+     */
+    public double getDouble() {
+        return Double.longBitsToDouble(mCases.mBits);
     }
 
 }
@@ -0,0 +1,723 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cases of a select which are built once and selected repeatedly without allocation. Each add method returns the
+ * index of the case, which select() returns. The data to send can be changed between selects, and a case can be
+ * disabled, which works the same as a nil channel in Go.
+ * Select builds one of these on every call. Not thread safe.
+ */
+public class SelectCases {
+
+    /**
+     * Called on the executor given to selectAsync().
+     */
+    public interface Callback {
+        /**
+         * @param index index of the case read or written. -1 if a send case found its channel closed.
+         */
+        void onSelect(int index);
+    }
+
+    BaseChan[] mChan = new BaseChan[4];
+    // data to send, ThreadContext.sReceiveFlag or ThreadContext.sSendBitsFlag
+    Object[] mSendData = new Object[4];
+    // values to send to primitive channels
+    long[] mSendBits = new long[4];
+    boolean[] mEnabled = new boolean[4];
+    int mNumCases = 0;
+
+    // enabled channels sorted by mId. rebuilt on the next select after a case is added or toggled.
+    private BaseChan[] mLockOrder = new BaseChan[4];
+    private int mNumLocks = 0;
+    private boolean mLockOrderValid = false;
+
+    // received data, or the raw bits of a value received from a primitive channel
+    Object mData;
+    long mBits;
+    // false if the selected case received from a closed channel
+    boolean mOk;
+    // set during selectBatch(). Chan.receiveForSelect() drains into it.
+    Object[] mBatch;
+    int mBatchMax;
+    int mCount;
+    // xorshift state. Random is thread safe, which costs a CAS per call.
+    private int mSeed = (int) System.nanoTime() ^ System.identityHashCode(this) | 1;
+
+    // try the cases in the order they were added instead of from a random one
+    private boolean mPriority = false;
+    private int mStarvationLimit = 0;
+    // selects in priority order since the last wait or the last fair select
+    private int mNumPrioritySelects = 0;
+
+    /**
+     * Add a channel to receive from.
+     * @return index of the case.
+     */
+    public int addReceive(Chan<?> chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
+    }
+
+    /**
+     * Add a channel to send to and a data. Passing closed channel will cause an Exception on select().
+     * @return index of the case.
+     */
+    public int addSend(Chan<?> chan, Object data) {
+        return addCase(chan, data, 0);
+    }
+
+    public int addReceiveInt(IntChan chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
+    }
+
+    public int addReceiveLong(LongChan chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
+    }
+
+    public int addReceiveDouble(DoubleChan chan) {
+        return addCase(chan, ThreadContext.sReceiveFlag, 0);
+    }
+
+    public int addSendInt(IntChan chan, int data) {
+        return addCase(chan, ThreadContext.sSendBitsFlag, data);
+    }
+
+    public int addSendLong(LongChan chan, long data) {
+        return addCase(chan, ThreadContext.sSendBitsFlag, data);
+    }
+
+    public int addSendDouble(DoubleChan chan, double data) {
+        return addCase(chan, ThreadContext.sSendBitsFlag, Double.doubleToRawLongBits(data));
+    }
+
+    int addCase(BaseChan chan, Object data, long bits) {
+        int index = mNumCases;
+        if (index == mChan.length) {
+            int size = index * 2;
+            BaseChan[] chans = new BaseChan[size];
+            System.arraycopy(mChan, 0, chans, 0, index);
+            mChan = chans;
+            Object[] sendData = new Object[size];
+            System.arraycopy(mSendData, 0, sendData, 0, index);
+            mSendData = sendData;
+            long[] sendBits = new long[size];
+            System.arraycopy(mSendBits, 0, sendBits, 0, index);
+            mSendBits = sendBits;
+            boolean[] enabled = new boolean[size];
+            System.arraycopy(mEnabled, 0, enabled, 0, index);
+            mEnabled = enabled;
+        }
+        mChan[index] = chan;
+        mSendData[index] = data;
+        mSendBits[index] = bits;
+        mEnabled[index] = true;
+        mNumCases++;
+        mLockOrderValid = false;
+        return index;
+    }
+
+    /**
+     * Change the data to send of a case added by addSend().
+     */
+    public void setSendData(int index, Object data) {
+        checkIndex(index);
+        if (mSendData[index] == ThreadContext.sReceiveFlag || mSendData[index] == ThreadContext.sSendBitsFlag) {
+            throw new IllegalArgumentException("case " + index + " is not a send to Chan");
+        }
+        mSendData[index] = data;
+    }
+
+    /**
+     * Change the value to send of a case added by addSendInt().
+     */
+    public void setSendInt(int index, int data) {
+        setSendBits(index, data);
+    }
+
+    public void setSendLong(int index, long data) {
+        setSendBits(index, data);
+    }
+
+    public void setSendDouble(int index, double data) {
+        setSendBits(index, Double.doubleToRawLongBits(data));
+    }
+
+    private void setSendBits(int index, long bits) {
+        checkIndex(index);
+        if (mSendData[index] != ThreadContext.sSendBitsFlag) {
+            throw new IllegalArgumentException("case " + index + " is not a send to a primitive channel");
+        }
+        mSendBits[index] = bits;
+    }
+
+    /**
+     * A disabled case is never selected, the same as a nil channel in Go. Cases are enabled when added.
+     */
+    public void setEnabled(int index, boolean enabled) {
+        checkIndex(index);
+        if (mEnabled[index] != enabled) {
+            mEnabled[index] = enabled;
+            mLockOrderValid = false;
+        }
+    }
+
+    public boolean isEnabled(int index) {
+        checkIndex(index);
+        return mEnabled[index];
+    }
+
+    /**
+     * In priority mode the cases are tried in the order they were added, and the first ready one is selected instead
+     * of a random one. The later cases are starved while an earlier one is always ready. With starvationLimit &gt; 0,
+     * after that many selects in a row which found a case ready without waiting, the next one starts from a random
+     * case as usual.
+     * @param starvationLimit 0 to always select in priority order.
+     */
+    public void setPriority(boolean priority, int starvationLimit) {
+        if (starvationLimit < 0) {
+            throw new IllegalArgumentException("starvationLimit < 0");
+        }
+        mPriority = priority;
+        mStarvationLimit = starvationLimit;
+        mNumPrioritySelects = 0;
+    }
+
+    /**
+     * @return true in priority mode.
+     */
+    public boolean isPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return the number of cases, including disabled ones.
+     */
+    public int size() {
+        return mNumCases;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mNumCases) {
+            throw new IndexOutOfBoundsException("index=" + index + " size=" + mNumCases);
+        }
+    }
+
+    /**
+     * Remove all the cases.
+     */
+    public void clear() {
+        for (int i = 0; i < mNumCases; i++) {
+            mChan[i] = null;
+            mSendData[i] = null;
+        }
+        mNumCases = 0;
+        mLockOrderValid = false;
+    }
+
+    /**
+     *
+     * @return index of the case read or written. -1 when interrupted.
+     */
+    public int select() {
+        return selectInternal(false, false, 0);
+    }
+
+    /**
+     * Same as select() but gives up after the timeout.
+     * @return index of the case read or written. -1 when timed out or interrupted.
+     */
+    public int select(long timeout, TimeUnit unit) {
+        return selectUntil(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Same as select() but gives up at the deadline.
+     * @param deadlineNanos in System.nanoTime()
+     * @return index of the case read or written. -1 when timed out or interrupted.
+     */
+    public int selectUntil(long deadlineNanos) {
+        return selectInternal(false, true, deadlineNanos);
+    }
+
+    /**
+     *
+     * @return index of the case read or written. -1 when no channel is ready.
+     */
+    public int selectNonblock() {
+        return selectInternal(true, false, 0);
+    }
+
+    /**
+     * Check the enabled cases without locking the channels.
+     * @return false if none of them can be ready.
+     */
+    private boolean anyLooksReady() {
+        for (int i = 0; i < mNumCases; i++) {
+            BaseChan ch = mChan[i];
+            if (ch == null || !mEnabled[i]) {
+                continue;
+            }
+            if (mSendData[i] == ThreadContext.sReceiveFlag ? ch.looksReadyToReceive() : ch.looksReadyToSend()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int selectInternal(boolean nonblock, boolean timed, long deadline) {
+        mData = null;
+        mOk = true;
+        if (nonblock && !anyLooksReady()) {
+            // nothing to do under the locks
+            return -1;
+        }
+        if (!mLockOrderValid) {
+            sortChanInLockOrder();
+        }
+
+        ThreadContext context = null;
+        // lock-free channel which woke up this select to retry
+        Chan<?> retryChan = null;
+        boolean retryReceive = false;
+        // async selects woken up by this select
+        AsyncSelect deferred = null;
+        try {
+            context = ThreadContext.get();
+            if (Config.DEBUG_PRINT) {
+                System.out.println("call select context=" + context);
+            }
+            if (Config.DEBUG_CHECK_STATE) {
+                context.ensureHasNoChan();
+            }
+            context.setCases(mChan, mSendData, mSendBits, mEnabled, mNumCases);
+            if (Config.DEBUG_PRINT) {
+                System.out.println(" nchan = " + mNumCases);
+            }
+            WaitStrategy strategy = getWaitStrategy(context);
+
+            while (true) {
+
+                lockAll();
+                try {
+                    // find a channel which is ready to send or receive
+                    int index = findAvailableChanRandomAndProcess(context);
+                    if (index >= 0) {
+                        if (Config.DEBUG_PRINT) {
+                            System.out.printf("select: found available chan. i=%d\n", index);
+                        }
+                        return index;
+                    }
+
+                    if (nonblock || (timed && deadline - System.nanoTime() <= 0)) {
+                        return -1;
+                    }
+
+                    // no channel is available. Add self to waiting list of all channels.
+                    resetPrioritySelects();
+                    if (timed) {
+                        context.prepareToWaitUntil();
+                    } else {
+                        context.prepareToWait(strategy);
+                    }
+                    addToAllChan(context);
+
+                    // lock-free channels may have become ready while registering.
+                    if (isAnyChanReadyAfterRegistration(context) && context.cancel()) {
+                        context.removeFromAllChannel();
+                        continue;
+                    }
+                } finally {
+                    deferred = unlockAll(deferred);
+                }
+
+                // wait
+                if (Config.DEBUG_PRINT) {
+                    System.out.printf("select: waiting\n");
+                }
+                if (!(timed ? context.awaitUntil(deadline) : context.await())) {
+                    if (Config.DEBUG_PRINT) {
+                        System.out.printf("select: interrupted or timed out\n");
+                    }
+                    context.removeFromAllChannel();
+                    return -1;
+                }
+                if (Config.DEBUG_PRINT) {
+                    System.out.printf("select: woken up\n");
+                }
+
+                // woken up by someone. might be close() or a peer of a lock-free channel
+                // The peer removed this context only from its own channel.
+                context.removeFromAllChannel();
+
+                if (context.mUnblockedChanIndex == -1) {
+                    // wokenup by close() or a lock-free peer
+                    if (Config.DEBUG_PRINT) {
+                        System.out.printf("select: woken up without data. check channels again\n");
+                    }
+                    retryChan = context.mRetryChan;
+                    retryReceive = context.mRetryReceive;
+                    continue;
+                }
+
+                mData = context.mReceivedData;
+                mBits = context.mReceivedBits;
+                return context.mUnblockedChanIndex;
+            }
+
+        } finally {
+            context.clearChan();
+            if (retryChan != null) {
+                retryChan.passOnRetry(retryReceive);
+            }
+            // a direct executor runs the callback on this thread, which may select again with its context
+            if (deferred != null) {
+                AsyncSelect.resumeAll(deferred);
+            }
+        }
+    }
+
+    /**
+     * Select without blocking the calling thread. If no case is ready, waits in the waiting lists of the channels
+     * like a blocked select, and the peer which makes a case ready runs the callback on the executor instead of
+     * waking up a thread. The callback always runs on the executor. Read the received data with getData() in the
+     * callback, and don't touch the cases until it's called.
+     *
+     * The peer calls the executor after releasing the channel locks, so a direct executor may run the callback in
+     * the thread of the peer. If the executor rejects it, the callback runs on a thread of Go.go().
+     * A send case on a closed channel is reported to the callback as index -1. Any other exception is thrown, by
+     * this method or on the executor.
+     */
+    public void selectAsync(Callback callback, Executor executor) {
+        if (callback == null) {
+            throw new NullPointerException("callback");
+        }
+        new AsyncSelect(this, callback, executor).start();
+    }
+
+    /**
+     * Select for AsyncSelect. Process a ready case, or add the context to the waiting lists and return without
+     * waiting.
+     * @return index of the case. AsyncSelect.PENDING if the context has been added.
+     */
+    int selectOrRegister(AsyncSelect context) {
+        mData = null;
+        mOk = true;
+        if (!mLockOrderValid) {
+            sortChanInLockOrder();
+        }
+        context.setCases(mChan, mSendData, mSendBits, mEnabled, mNumCases);
+        AsyncSelect deferred = null;
+        try {
+            while (true) {
+                lockAll();
+                try {
+                    int index = findAvailableChanRandomAndProcess(context);
+                    if (index >= 0) {
+                        context.clearChan();
+                        return index;
+                    }
+
+                    resetPrioritySelects();
+                    context.prepareToResume();
+                    addToAllChan(context);
+
+                    // lock-free channels may have become ready while registering.
+                    if (isAnyChanReadyAfterRegistration(context) && context.cancel()) {
+                        context.removeFromAllChannel();
+                        continue;
+                    }
+                    // a peer may resume the context on the executor as soon as the locks are released
+                    return AsyncSelect.PENDING;
+                } finally {
+                    deferred = unlockAll(deferred);
+                }
+            }
+        } finally {
+            if (deferred != null) {
+                AsyncSelect.resumeAll(deferred);
+            }
+        }
+    }
+
+    /**
+     * Sort enabled channels by Chan.mId removing nulls and duplicates. Channels are always locked in this order
+     * so that two selects sharing channels don't deadlock.
+     */
+    private void sortChanInLockOrder() {
+        if (mLockOrder.length < mNumCases) {
+            mLockOrder = new BaseChan[mChan.length];
+        }
+        BaseChan[] sorted = mLockOrder;
+        int num = 0;
+        for (int c = 0; c < mNumCases; c++) {
+            BaseChan ch = mChan[c];
+            if (ch == null || !mEnabled[c]) {
+                continue;
+            }
+            // insertion sort. the number of cases is usually small.
+            int i = num;
+            while (i > 0 && sorted[i - 1].mId > ch.mId) {
+                i--;
+            }
+            if (i > 0 && sorted[i - 1] == ch) {
+                continue;
+            }
+            System.arraycopy(sorted, i, sorted, i + 1, num - i);
+            sorted[i] = ch;
+            num++;
+        }
+        for (int i = num; i < mNumLocks; i++) {
+            sorted[i] = null;
+        }
+        mNumLocks = num;
+        mLockOrderValid = true;
+    }
+
+    /**
+     * @return the strategy of the channel of the first case. Blocking if there's no channel.
+     */
+    private static WaitStrategy getWaitStrategy(ThreadContext context) {
+        for (int i = 0; i < context.mNumWaiters; i++) {
+            BaseChan ch = context.mWaiters[i].mChan;
+            if (ch != null) {
+                return ch.waitStrategy();
+            }
+        }
+        return WaitStrategy.blocking();
+    }
+
+    private void lockAll() {
+        for (int i = 0; i < mNumLocks; i++) {
+            mLockOrder[i].mLock.lock();
+        }
+    }
+
+    /**
+     * The async selects woken up holding the locks are not resumed here, but returned for the caller to resume them
+     * after it has cleared its context.
+     * @param deferred selects taken by the previous calls, or null.
+     * @return the selects of the locks followed by deferred.
+     */
+    private AsyncSelect unlockAll(AsyncSelect deferred) {
+        for (int i = mNumLocks - 1; i >= 0; i--) {
+            deferred = mLockOrder[i].mLock.takeDeferred(deferred);
+            mLockOrder[i].mLock.unlock();
+        }
+        return deferred;
+    }
+
+
+    private int findAvailableChanRandomAndProcess(ThreadContext context) {
+        int numChan = context.mNumWaiters;
+        if (numChan == 0) {
+            return -1;
+        }
+        for (int n = 0, i = firstCase(numChan); n < numChan; n++) {
+            Waiter waiter = context.mWaiters[i];
+            BaseChan ch = waiter.mChan;
+            if (ch != null) {
+                if (waiter.isReceive()) {
+                    if (ch.receiveForSelect(this, context)) {
+                        return i;
+                    }
+                } else {
+                    boolean dontBlock = ch.sendForSelect(waiter.mData, waiter.mBits);
+                    if (dontBlock) {
+                        mData = null;
+                        return i;
+                    }
+                }
+            }
+
+            i++;
+            if (i >= numChan) {
+                i = 0;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the case to try first. 0 in priority mode unless the starvation limit is reached.
+     */
+    private int firstCase(int numChan) {
+        return nextSelectInPriorityOrder() ? 0 : nextRandom(numChan);
+    }
+
+    /**
+     * Called once for each try of the cases.
+     * @return true to try them in priority order. false if not in priority mode, or the starvation limit is reached.
+     */
+    boolean nextSelectInPriorityOrder() {
+        if (mPriority) {
+            if (mStarvationLimit == 0 || mNumPrioritySelects < mStarvationLimit) {
+                mNumPrioritySelects++;
+                return true;
+            }
+            mNumPrioritySelects = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Called when the select starts waiting. The starvation limit counts the selects without waiting.
+     */
+    void resetPrioritySelects() {
+        mNumPrioritySelects = 0;
+    }
+
+    private int nextRandom(int n) {
+        int x = mSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mSeed = x;
+        return (x >>> 1) % n;
+    }
+
+    /**
+     * Registration also starts at a random case so that a peer doesn't always pick the first one
+     * when the same channel is added more than once. In priority mode it's in order.
+     */
+    private void addToAllChan(ThreadContext context) {
+        if (Config.DEBUG_PRINT) {
+            System.out.println("select: adding context to all channels");
+        }
+        int numChan = context.mNumWaiters;
+        if (numChan == 0) {
+            return;
+        }
+        for (int n = 0, i = mPriority ? 0 : nextRandom(numChan); n < numChan; n++) {
+            Waiter waiter = context.mWaiters[i];
+            BaseChan ch = waiter.mChan;
+            if (Config.DEBUG_PRINT) {
+                System.out.println(" ch=" + ch);
+            }
+            if (ch != null) {
+                if (waiter.isReceive()) {
+                    if (Config.DEBUG_PRINT) {
+                        System.out.printf("  added to receiverList\n");
+                    }
+                    ch.addToReceiverList(waiter);
+                } else {
+                    if (Config.DEBUG_PRINT) {
+                        System.out.printf("  added to senderList\n");
+                    }
+                    ch.addToSenderList(waiter);
+                }
+            }
+
+            i++;
+            if (i >= numChan) {
+                i = 0;
+            }
+        }
+    }
+
+    private boolean isAnyChanReadyAfterRegistration(ThreadContext context) {
+        for (int i = 0; i < context.mNumWaiters; i++) {
+            Waiter waiter = context.mWaiters[i];
+            if (waiter.mChan != null && waiter.mChan.isReadyAfterRegistration(waiter.isReceive())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as select(), but when a receive case of Chan is selected, drains up to max data from the channel into dst
+     * while still holding its lock: the selected data and whatever is buffered or offered by waiting senders.
+     * Get the number with getCount().
+     * @return index of the case read or written. -1 when interrupted.
+     */
+    public int selectBatch(Object[] dst, int max) {
+        if (max > dst.length) {
+            throw new IllegalArgumentException("max > dst.length");
+        }
+        if (max <= 0) {
+            throw new IllegalArgumentException("max <= 0");
+        }
+        mBatch = dst;
+        mBatchMax = max;
+        mCount = 0;
+        try {
+            int index = select();
+            if (index >= 0 && mCount == 0 && mOk && mSendData[index] == ThreadContext.sReceiveFlag
+                    && mChan[index] instanceof Chan) {
+                // handed by a peer while waiting. drain the rest.
+                BaseChan ch = mChan[index];
+                dst[0] = mData;
+                ch.mLock.lock();
+                try {
+                    mCount = 1 + ((Chan<?>) ch).drainForSelect(dst, 1, max - 1);
+                } finally {
+                    ch.mLock.unlock();
+                }
+            }
+            return index;
+        } finally {
+            mBatch = null;
+        }
+    }
+
+    /**
+     * @return the number of data stored by selectBatch(). 0 if the selected case is not a receive of Chan, or the
+     * channel is closed.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get received data. Call this after select() returns.
+     */
+    public Object getData() {
+        return mData;
+    }
+
+    /**
+     * @return false if the selected case has received from a closed channel. getData() returns 'end' of close() then.
+     */
+    public boolean isOk() {
+        return mOk;
+    }
+
+    /**
+     * Get the value received from an IntChan. Call this after select() returns.
+     */
+    public int getInt() {
+        return (int) mBits;
+    }
+
+    /**
+     * Get the value received from a LongChan. Call this after select() returns.
+     */
+    public long getLong() {
+        return mBits;
+    }
+
+    /**
+     * Get the value received from a DoubleChan. Call this after select() returns.
+     */
+    public double getDouble() {
+        return Double.longBitsToDouble(mBits);
+    }
+
+}
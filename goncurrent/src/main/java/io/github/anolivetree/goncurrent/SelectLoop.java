@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+/**
+ * for-select loop. The loop stays registered with its channels between iterations through TrackedSelectCases, and
+ * tries only the cases which its channels have signaled, so the cost of a message doesn't depend on the number of
+ * channels. A receive case is disabled when its channel is closed, without calling its handler, and run() returns
+ * when no case is left.
+ *
+ *     SelectLoop loop = new SelectLoop();
+ *     loop.onReceive(ch1, handler1);
+ *     loop.onReceive(ch2, handler2);
+ *     loop.run(); // until ch1 and ch2 are closed
+ *     loop.close();
+ *
+ * The channels refer to the loop until close() is called. Not thread safe.
+ */
+public class SelectLoop extends HandlerSelect {
+
+    private int mNumEnabled = 0;
+    private volatile boolean mStopped = false;
+
+    public SelectLoop() {
+        super(new TrackedSelectCases());
+    }
+
+    @Override
+    public <T> int onReceive(Chan<T> chan, ReceiveHandler<? super T> handler) {
+        if (chan == null) {
+            throw new NullPointerException("chan");
+        }
+        int index = super.onReceive(chan, handler);
+        mNumEnabled++;
+        return index;
+    }
+
+    @Override
+    public <T> int onSend(Chan<T> chan, SendHandler<T> handler) {
+        if (chan == null) {
+            throw new NullPointerException("chan");
+        }
+        int index = super.onSend(chan, handler);
+        mNumEnabled++;
+        return index;
+    }
+
+    @Override
+    public void setEnabled(int index, boolean enabled) {
+        boolean wasEnabled = mCases.isEnabled(index);
+        super.setEnabled(index, enabled);
+        if (enabled != wasEnabled) {
+            mNumEnabled += enabled ? 1 : -1;
+        }
+    }
+
+    @Override
+    boolean onClosed(int index) {
+        setEnabled(index, false);
+        return true;
+    }
+
+    /**
+     * Select and call the handlers until stop() is called, every case is disabled, or the thread is interrupted.
+     * @return false when interrupted.
+     */
+    public boolean run() {
+        mStopped = false;
+        while (!mStopped && mNumEnabled > 0) {
+            if (select() < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make run() return after the current handler. Call this from a handler. From another thread, it takes effect
+     * after the next case is selected; interrupt the thread to stop waiting.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Remove all the cases and unregister from the channels.
+     */
+    public void close() {
+        clear();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mNumEnabled = 0;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring for exactly one producer thread and one consumer thread.
+ *
+ * The producer publishes with a volatile set of mTail, not a CAS, and then reads mClosed. An offer which sees
+ * mClosed only after publishing has raced with close(). Then the producer and the consumer agree on the position
+ * at close() through mClosedTail, and the offer fails if its data is beyond it. The consumer never polls beyond
+ * mClosedTail.
+ */
+final class SpscRing extends LockFreeRing {
+
+    private final Object[] mBuffer;
+    private final int mMask;
+    private final int mCapacity;
+
+    // next index to read. written only by the consumer.
+    private final AtomicLong mHead = new AtomicLong();
+    // next index to write. written only by the producer.
+    private final AtomicLong mTail = new AtomicLong();
+
+    private volatile boolean mClosed = false;
+    // the data before this position were offered before close(). -1 until the producer or the consumer needs it.
+    private final AtomicLong mClosedTail = new AtomicLong(-1);
+
+    // producer's last view of mHead
+    private long mHeadCache = 0;
+    // consumer's last view of mTail
+    private long mTailCache = 0;
+
+    SpscRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mBuffer = new Object[size];
+        mMask = size - 1;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Called only by the producer.
+     */
+    @Override
+    boolean offer(Object data) {
+        if (mClosed) {
+            return false;
+        }
+        long tail = mTail.get();
+        if (tail - mHeadCache >= mCapacity) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mCapacity) {
+                return false;
+            }
+        }
+        int index = (int) tail & mMask;
+        mBuffer[index] = data;
+        // must not be a lazySet. see LockFreeRing. It also orders the store before the read of mClosed.
+        mTail.set(tail + 1);
+        if (mClosed) {
+            // raced with close(). the consumer may have found the ring drained before the set.
+            mClosedTail.compareAndSet(-1, tail + 1);
+            if (mClosedTail.get() <= tail) {
+                // the consumer never polls it
+                mBuffer[index] = null;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called only by the consumer.
+     */
+    @Override
+    Object poll() {
+        long head = mHead.get();
+        if (head >= mTailCache) {
+            mTailCache = readableTail();
+            if (head >= mTailCache) {
+                return Chan.sWouldBlock;
+            }
+        }
+        int index = (int) head & mMask;
+        Object data = mBuffer[index];
+        mBuffer[index] = null;
+        mHead.set(head + 1);
+        return data;
+    }
+
+    /**
+     * @return mTail, or mClosedTail if an offer beyond it has failed.
+     */
+    private long readableTail() {
+        long tail = mTail.get();
+        if (mClosed) {
+            long closedTail = mClosedTail.get();
+            if (closedTail >= 0 && closedTail < tail) {
+                return closedTail;
+            }
+        }
+        return tail;
+    }
+
+    @Override
+    void close() {
+        mClosed = true;
+    }
+
+    @Override
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Called only by the consumer, after it has seen the channel closed. The first call fixes mClosedTail unless
+     * a racing offer has done so. An offer which published before the read of mTail here is included, and one
+     * which publishes after it fails.
+     */
+    @Override
+    boolean isDrained() {
+        if (!mClosed) {
+            return false;
+        }
+        long closedTail = mClosedTail.get();
+        if (closedTail < 0) {
+            mClosedTail.compareAndSet(-1, mTail.get());
+            closedTail = mClosedTail.get();
+        }
+        return mHead.get() >= closedTail;
+    }
+
+    @Override
+    boolean isEmpty() {
+        return mHead.get() >= readableTail();
+    }
+
+    @Override
+    boolean isFull() {
+        return mTail.get() - mHead.get() >= mCapacity;
+    }
+
+    @Override
+    int size() {
+        long head = mHead.get();
+        long size = readableTail() - head;
+        if (size < 0) {
+            return 0;
+        }
+        return size > mCapacity ? mCapacity : (int) size;
+    }
+}
@@ -15,15 +15,15 @@
  */
 package io.github.anolivetree.goncurrent;
 
-import java.util.ArrayList;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 class ThreadContext {
 
     private static final ThreadLocal<ThreadContext> context =
             new ThreadLocal<ThreadContext>() {
                 @Override protected ThreadContext initialValue() {
-                    ThreadContext context = new ThreadContext();
+                    ThreadContext context = new ThreadContext(Thread.currentThread());
                     return context;
                 }
             };
@@ -33,17 +33,69 @@ class ThreadContext {
     }
 
     static final Object sReceiveFlag = new Object();
+    // Waiter.mData of a waiter sending Waiter.mBits to a primitive channel
+    static final Object sSendBitsFlag = new Object();
 
-    final Condition mCond;
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_WAITING = 1;
+    private static final int STATE_CLAIMED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private static final AtomicIntegerFieldUpdater<ThreadContext> sStateUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(ThreadContext.class, "mState");
+
+    /**
+     * A context may wait on several channels, each guarded by its own lock. Whoever wins the CAS from
+     * STATE_WAITING owns the context: a peer (claimed), close() or a peer of a lock-free channel (claimed with
+     * mUnblockedChanIndex == -1), or the waiting thread itself when interrupted (cancelled).
+     */
+    private volatile int mState = STATE_IDLE;
+
+    // the thread owning this context. the waker unparks it directly. null for AsyncSelect.
+    private final Thread mThread;
+    // written after mUnblockedChanIndex and mReceivedData, so that the woken thread sees them.
+    private volatile boolean mWoken = false;
+    // set by prepareToWait(). read by the waker after it has claimed this context.
+    private WaitStrategy mWaitStrategy;
+    private boolean mNeedsUnpark;
 
     int mUnblockedChanIndex = -1;
     Object mReceivedData;
+    // value received from a primitive channel. not cleared by clearChan(), so that the receiver can read it after.
+    long mReceivedBits;
+    // lock-free channel whose peer woke up this context to retry, and the side of the waiter. See Chan.passOnRetry().
+    Chan<?> mRetryChan;
+    boolean mRetryReceive;
+
+    // one waiter per case. reused across operations.
+    Waiter[] mWaiters = new Waiter[4];
+    int mNumWaiters = 0;
 
-    ArrayList<Chan> mChan = new ArrayList<Chan>();
-    ArrayList<Object> mSendData = new ArrayList<Object>();
+    ThreadContext(Thread thread) {
+        mThread = thread;
+    }
 
-    private ThreadContext() {
-        mCond = Chan.sLock.newCondition();
+    private Waiter addWaiter(BaseChan chan, Object data, long bits) {
+        return addWaiter(chan, data, bits, mNumWaiters);
+    }
+
+    /**
+     * @param index index of the case, which may differ from the position of the waiter in mWaiters.
+     */
+    Waiter addWaiter(BaseChan chan, Object data, long bits, int index) {
+        if (mNumWaiters == mWaiters.length) {
+            Waiter[] waiters = new Waiter[mWaiters.length * 2];
+            System.arraycopy(mWaiters, 0, waiters, 0, mNumWaiters);
+            mWaiters = waiters;
+        }
+        Waiter waiter = mWaiters[mNumWaiters];
+        if (waiter == null) {
+            waiter = new Waiter(this);
+            mWaiters[mNumWaiters] = waiter;
+        }
+        waiter.set(chan, data, bits, index);
+        mNumWaiters++;
+        return waiter;
     }
 
     /**
@@ -51,138 +103,211 @@ class ThreadContext {
      * @param chan
      * @param data
      */
-    void addSendChan(Chan chan, Object data) {
-        mChan.add(chan);
-        mSendData.add(data);
+    Waiter addSendChan(BaseChan chan, Object data) {
+        return addWaiter(chan, data, 0);
     }
 
     /**
-     * register receive channel one by one
+     * register primitive channel to send to
      * @param chan
+     * @param bits
      */
-    void addReceiveChan(Chan chan) {
-        mChan.add(chan);
-        mSendData.add(sReceiveFlag);
+    Waiter addSendBits(BaseChan chan, long bits) {
+        return addWaiter(chan, sSendBitsFlag, bits);
     }
 
     /**
-     * set send and receive channels
+     * register receive channel one by one
      * @param chan
      */
-    void setChanAndData(ArrayList<Chan> chan, ArrayList<Object> data) {
-        if (chan.size() != data.size()) {
-            throw new RuntimeException("size differ");
+    Waiter addReceiveChan(BaseChan chan) {
+        return addWaiter(chan, sReceiveFlag, 0);
+    }
+
+    /**
+     * set send and receive channels. A disabled case is registered without a channel so that the indices of the
+     * waiters stay the same as the cases.
+     */
+    void setCases(BaseChan[] chan, Object[] data, long[] bits, boolean[] enabled, int num) {
+        for (int i = 0; i < num; i++) {
+            addWaiter(enabled[i] ? chan[i] : null, data[i], bits[i]);
         }
-        mChan = chan;
-        mSendData = data;
     }
 
-    void markReceiverUnblockedAndRemoveFromOtherChans(Chan chan, Object data) {
-        //System.out.println("context: remove from all channels " + this + " target ch =" + chan);
-        boolean found = false;
-        int numChan = mChan.size();
-        for (int i = 0; i < numChan; i++) {
-            Chan ch = mChan.get(i);
-            if (ch == null) {
-                continue;
-            }
-            //System.out.println("  ch=" + ch);
-            if (ch == chan && mSendData.get(i) == sReceiveFlag && !found) {
-                //System.out.println("  found");
-                mReceivedData = data;
-                mUnblockedChanIndex = i;
-                found = true;
-            } else {
-                //System.out.println("  differ. sSendData.get(i)=" + mSendData.get(i) + " sReceiveFlag=" + sReceiveFlag);
-                if (mSendData.get(i) == sReceiveFlag) {
-                    ch.removeFromReceiverList(this);
-                } else {
-                    ch.removeFromSenderList(this);
-                }
-            }
+    /**
+     * Call this before adding the context to waiting lists.
+     * @param strategy how await() waits.
+     */
+    void prepareToWait(WaitStrategy strategy) {
+        mWaitStrategy = strategy;
+        mNeedsUnpark = strategy.needsUnpark();
+        mWoken = false;
+        mState = STATE_WAITING;
+    }
+
+    /**
+     * Same as prepareToWait() for a context which doesn't wait, but is resumed by wakeup().
+     */
+    void prepareToResume() {
+        mWaitStrategy = null;
+        mNeedsUnpark = false;
+        mWoken = false;
+        mState = STATE_WAITING;
+    }
+
+    /**
+     * Same as prepareToWait() for awaitUntil().
+     */
+    void prepareToWaitUntil() {
+        mWaitStrategy = null;
+        mNeedsUnpark = true;
+        mWoken = false;
+        mState = STATE_WAITING;
+    }
+
+    private boolean claim() {
+        return sStateUpdater.compareAndSet(this, STATE_WAITING, STATE_CLAIMED);
+    }
+
+    /**
+     * Called by the waker after it has claimed this context and written the result. AsyncSelect overrides this to
+     * resume on its executor.
+     * @param chan channel whose lock the waker holds. null if none.
+     */
+    void wakeup(BaseChan chan) {
+        mWoken = true;
+        if (mNeedsUnpark) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Wait with the strategy given to prepareToWait() until a peer or close() wakes up this context.
+     * Must be called without holding any channel lock.
+     * @return false when interrupted before anyone claims this context.
+     */
+    boolean await() {
+        return mWaitStrategy.await(this);
+    }
+
+    /**
+     * Same as await() but gives up at the deadline. Call prepareToWaitUntil() instead of prepareToWait().
+     * @param deadline in System.nanoTime()
+     * @return false when interrupted or timed out before anyone claims this context.
+     */
+    boolean awaitUntil(long deadline) {
+        return WaitStrategy.awaitUntil(this, deadline);
+    }
+
+    boolean isWoken() {
+        return mWoken;
+    }
+
+    /**
+     * Called by a sender holding the lock of the channel after removing the waiter from the receiver list.
+     * @return false if this context has already been woken up through another channel.
+     */
+    boolean markReceiverUnblocked(Waiter waiter, Object data) {
+        if (!claim()) {
+            return false;
         }
-        if (!found) {
-            throw new RuntimeException("chan not found in context context=" + this + " chan=" + chan);
+        mReceivedData = data;
+        mUnblockedChanIndex = waiter.mIndex;
+        wakeup(waiter.mChan);
+        return true;
+    }
+
+    /**
+     * Same as markReceiverUnblocked() for a primitive channel.
+     */
+    boolean markReceiverUnblocked(Waiter waiter, long bits) {
+        if (!claim()) {
+            return false;
         }
-        mChan.clear();
-        mSendData.clear();
-    }
-
-    Object markSenderUnblockedAnsRemoveFromOtherChans(Chan chan) {
-        boolean found = false;
-        Object receivedData = null;
-        int numChan = mChan.size();
-        for (int i = 0; i < numChan; i++) {
-            Chan ch = mChan.get(i);
-            if (Config.DEBUG_PRINT) {
-                System.out.printf("markSenderUnblockedAnsRemoveFromOtherChans: ch=" + ch + " looking for=" + chan + "\n");
-            }
-            if (ch == null) {
-                continue;
-            }
-            if (ch == chan && mSendData.get(i) != sReceiveFlag && !found) {
-                if (Config.DEBUG_PRINT) {
-                    System.out.printf("  found\n");
-                }
-                mReceivedData = null;
-                mUnblockedChanIndex = i;
-                receivedData = mSendData.get(i);
-                found = true;
-            } else {
-                if (Config.DEBUG_PRINT) {
-                    System.out.printf("  ignore\n");
-                }
-                if (mSendData.get(i) == sReceiveFlag) {
-                    ch.removeFromReceiverList(this);
-                } else {
-                    ch.removeFromSenderList(this);
-                }
-            }
+        mReceivedData = null;
+        mReceivedBits = bits;
+        mUnblockedChanIndex = waiter.mIndex;
+        wakeup(waiter.mChan);
+        return true;
+    }
+
+    /**
+     * Called by a receiver holding the lock of the channel after removing the waiter from the sender list.
+     * @return data to send, or Chan.sWouldBlock if this context has already been woken up through another channel.
+     */
+    Object markSenderUnblocked(Waiter waiter) {
+        if (!claim()) {
+            return Chan.sWouldBlock;
         }
-        if (!found) {
-            if (Config.DEBUG_PRINT) {
-                System.out.printf("try to find ch=" + chan + ", numChan=%d\n", numChan);
-                for (int i = 0; i < numChan; i++) {
-                    Chan ch = mChan.get(i);
-                    if (ch != null && mSendData.get(i) == sReceiveFlag) {
-                        System.out.printf("ch(R)=" + ch + "\n");
-                    } else if (ch != null && mSendData.get(i) != sReceiveFlag) {
-                        System.out.printf("ch(S)=" + ch + "\n");
-                    } else {
-                        System.out.printf("ch(?)=" + ch + "\n");
-                    }
-                }
-                System.out.printf("=================================\n");
-                System.out.flush();
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            throw new RuntimeException("chan not found in context context=" + this + " chan=" + chan);
+        if (Config.DEBUG_PRINT) {
+            System.out.printf("markSenderUnblocked: ch=" + waiter.mChan + " index=" + waiter.mIndex + "\n");
         }
-        mChan.clear();
-        mSendData.clear();
-        return receivedData;
+        mReceivedData = null;
+        mUnblockedChanIndex = waiter.mIndex;
+        Object data = waiter.mData;
+        wakeup(waiter.mChan);
+        return data;
     }
 
+    /**
+     * Called by close(), or by a peer of a lock-free channel, holding the lock of the channel.
+     * The woken thread checks the channels again.
+     * @param chan channel whose lock the caller holds. null if none.
+     * @return false if this context has already been woken up through another channel.
+     */
+    boolean markUnblockedToRetry(BaseChan chan) {
+        if (!claim()) {
+            return false;
+        }
+        mUnblockedChanIndex = -1;
+        mRetryChan = null;
+        wakeup(chan);
+        return true;
+    }
 
     /**
-     * remove this context from waiting list of all channels.
+     * Called by a peer of a lock-free channel holding its lock after removing the waiter from the list. Same as
+     * markUnblockedToRetry(BaseChan), but the woken select remembers the channel to pass the wakeup on if it
+     * selects another case.
+     * @return false if this context has already been woken up through another channel.
+     */
+    boolean markUnblockedToRetry(Waiter waiter, Chan<?> chan) {
+        if (!claim()) {
+            return false;
+        }
+        mUnblockedChanIndex = -1;
+        mRetryChan = chan;
+        mRetryReceive = waiter.isReceive();
+        wakeup(chan);
+        return true;
+    }
+
+    /**
+     * Called by select holding the locks of all of its channels when it found a channel ready after registration.
+     * @return false if someone has already claimed this context.
+     */
+    boolean cancel() {
+        return sStateUpdater.compareAndSet(this, STATE_WAITING, STATE_CANCELLED);
+    }
+
+    /**
+     * remove this context from waiting list of all channels. Locks each channel one by one.
+     * The waiter through which a peer has woken up this context is skipped without taking the lock: the peer
+     * dequeued it and doesn't touch it after wakeup(). Any other waiter may still be held by a peer which dequeued
+     * it but lost the claim, so its lock must be taken before this context is reused.
      */
     void removeFromAllChannel() {
         //System.out.println("context: remove from all channels " + this);
-        int numChan = mChan.size();
-        for (int i = 0; i < numChan; i++) {
-            Chan ch = mChan.get(i);
-            if (ch == null) {
+        for (int i = 0; i < mNumWaiters; i++) {
+            Waiter waiter = mWaiters[i];
+            BaseChan ch = waiter.mChan;
+            if (ch == null || waiter.mIndex == mUnblockedChanIndex) {
                 continue;
             }
-            if (mSendData.get(i) == sReceiveFlag) {
-                ch.removeFromReceiverList(this);
+            if (waiter.isReceive()) {
+                ch.removeFromReceiverList(waiter);
             } else {
-                ch.removeFromSenderList(this);
+                ch.removeFromSenderList(waiter);
             }
         }
     }
@@ -193,10 +318,15 @@ class ThreadContext {
             //System.out.println(" ch:" + ch);
         //}
 
+        mState = STATE_IDLE;
+        mWaitStrategy = null;
         mUnblockedChanIndex = -1;
         mReceivedData = null;
-        mChan.clear();
-        mSendData.clear();
+        mRetryChan = null;
+        for (int i = 0; i < mNumWaiters; i++) {
+            mWaiters[i].clear();
+        }
+        mNumWaiters = 0;
     }
 
     /**
@@ -206,7 +336,7 @@ class ThreadContext {
         if (!Config.DEBUG_CHECK_STATE) {
             throw new RuntimeException("DEBUG_CHECK_STATE is false");
         }
-        if (mChan.size() > 0 || mSendData.size() > 0 || mUnblockedChanIndex != -1 || mReceivedData != null) {
+        if (mNumWaiters > 0 || mUnblockedChanIndex != -1 || mReceivedData != null) {
             throw new RuntimeException("illegal state");
         }
 
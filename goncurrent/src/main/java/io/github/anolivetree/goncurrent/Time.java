@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers which deliver to a channel, like time.After(), time.NewTimer() and time.NewTicker() in Go.
+ * The channels can be used in select.
+ *
+ *     Chan&lt;Long&gt; timeout = Time.after(100, TimeUnit.MILLISECONDS);
+ *     Select select = new Select();
+ *     select.receive(ch1);
+ *     select.receive(timeout);
+ *     if (select.select() == 1) {
+ *         // timed out
+ *     }
+ *
+ * All the timers share a timing wheel running on one thread. A timer fires within about 1ms after its deadline,
+ * never before. The value sent is System.currentTimeMillis() at the time it fires.
+ */
+public final class Time {
+
+    private Time() {
+    }
+
+    /**
+     * @return a channel which receives once after the delay.
+     */
+    static public Chan<Long> after(long delay, TimeUnit unit) {
+        return newTimer(delay, unit).chan();
+    }
+
+    /**
+     * @return a channel which receives every period. Never stopped, see newTicker().
+     */
+    static public Chan<Long> tick(long period, TimeUnit unit) {
+        return newTicker(period, unit).chan();
+    }
+
+    static public Timer newTimer(long delay, TimeUnit unit) {
+        Timer timer = new Timer();
+        timer.reset(delay, unit);
+        return timer;
+    }
+
+    static public Ticker newTicker(long period, TimeUnit unit) {
+        Ticker ticker = new Ticker();
+        ticker.reset(period, unit);
+        return ticker;
+    }
+
+    /**
+     * Sends the current time to the channel once. The channel holds one value, and doesn't block the timer.
+     */
+    static public final class Timer {
+
+        private final Chan<Long> mChan = Chan.create(1);
+        private final TimingWheel.Entry mEntry = new TimingWheel.Entry() {
+            @Override
+            void expire() {
+                offer(mChan);
+            }
+        };
+
+        private Timer() {
+        }
+
+        public Chan<Long> chan() {
+            return mChan;
+        }
+
+        /**
+         * Stop the timer. The channel doesn't receive a value which has already been sent.
+         * @return true if the timer was pending, false if it has already fired or been stopped.
+         */
+        public boolean stop() {
+            return TimingWheel.shared().cancel(mEntry);
+        }
+
+        /**
+         * Fire after the delay from now, whether the timer has fired or not.
+         * @return true if the timer was pending.
+         */
+        public boolean reset(long delay, TimeUnit unit) {
+            return TimingWheel.shared().schedule(mEntry, System.nanoTime() + unit.toNanos(delay));
+        }
+    }
+
+    /**
+     * Sends the current time to the channel every period. The channel holds one value, and the ticks are dropped
+     * while it is full, so a slow receiver doesn't make the ticks pile up.
+     */
+    static public final class Ticker {
+
+        private final Chan<Long> mChan = Chan.create(1);
+        private volatile long mPeriodNanos;
+        private final TimingWheel.Entry mEntry = new TimingWheel.Entry() {
+            @Override
+            void expire() {
+                offer(mChan);
+                TimingWheel.shared().scheduleNextPeriod(this, mPeriodNanos);
+            }
+        };
+
+        private Ticker() {
+        }
+
+        public Chan<Long> chan() {
+            return mChan;
+        }
+
+        public void stop() {
+            TimingWheel.shared().cancel(mEntry);
+        }
+
+        /**
+         * Tick every period from now.
+         */
+        public void reset(long period, TimeUnit unit) {
+            long periodNanos = unit.toNanos(period);
+            if (periodNanos <= 0) {
+                throw new IllegalArgumentException("period <= 0");
+            }
+            mPeriodNanos = periodNanos;
+            TimingWheel.shared().schedule(mEntry, System.nanoTime() + periodNanos);
+        }
+    }
+
+    /**
+     * Send without blocking. The value is dropped if the channel is full or has been closed by the user.
+     */
+    static private void offer(Chan<Long> chan) {
+        chan.mLock.lock();
+        try {
+            if (chan.mIsClosed) {
+                return;
+            }
+            chan.send(System.currentTimeMillis(), true);
+        } finally {
+            if (chan.mLock.isHeldByCurrentThread()) {
+                chan.mLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical hashed timing wheel with a resolution of 1ms. Each level has 256 slots, and a slot of a level spans
+ * a whole revolution of the level below. A timer is linked to the slot of its level, so that scheduling and
+ * cancelling are O(1). When the lower level wraps around, the current slot of the level above is moved down.
+ * Timers further than 4 levels (about 49 days) wait in the top level and are moved down until they are due.
+ *
+ * The shared wheel runs on a single daemon thread, which sleeps until the next slot with a timer.
+ */
+final class TimingWheel {
+
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static private final int BITS = 8;
+    static private final int SLOTS = 1 << BITS;
+    static private final int MASK = SLOTS - 1;
+    static private final int LEVELS = 4;
+    static private final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+    /**
+     * A timer. The fields are guarded by the lock of the wheel.
+     */
+    static abstract class Entry {
+        Entry mPrev;
+        Entry mNext;
+        long mDeadlineNanos;
+        long mDeadlineTick;
+        // index to mSlots. -1 when not pending.
+        int mSlot = -1;
+        boolean mStopped = true;
+
+        /**
+         * Called on the thread of the wheel, without the lock.
+         */
+        abstract void expire();
+    }
+
+    static private class Holder {
+        static final TimingWheel sShared = new TimingWheel(System.nanoTime()).start();
+    }
+
+    static TimingWheel shared() {
+        return Holder.sShared;
+    }
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mChanged = mLock.newCondition();
+    private final long mStartNanos;
+    private final Entry[] mSlots = new Entry[SLOTS * LEVELS];
+    private final int[] mNumEntries = new int[LEVELS];
+    // the first tick which has not been processed
+    private long mCurrentTick = 0;
+    // tick the thread is waiting for. Long.MAX_VALUE if waiting without a timer, Long.MIN_VALUE if not waiting.
+    private long mWakeTick = Long.MIN_VALUE;
+
+    TimingWheel(long startNanos) {
+        mStartNanos = startNanos;
+    }
+
+    private TimingWheel start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "goncurrent-timer");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Schedule the entry, or move it if it is pending.
+     * @return true if it was pending.
+     */
+    boolean schedule(Entry entry, long deadlineNanos) {
+        mLock.lock();
+        try {
+            boolean pending = entry.mSlot >= 0;
+            if (pending) {
+                unlink(entry);
+            }
+            entry.mStopped = false;
+            entry.mDeadlineNanos = deadlineNanos;
+            link(entry);
+            return pending;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Schedule the entry 'period' after its last deadline, skipping the periods which have already passed.
+     * Does nothing if it has been stopped or scheduled again after it expired.
+     */
+    void scheduleNextPeriod(Entry entry, long periodNanos) {
+        mLock.lock();
+        try {
+            if (entry.mStopped || entry.mSlot >= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long next = entry.mDeadlineNanos + periodNanos;
+            if (next - now <= 0) {
+                next += ((now - next) / periodNanos + 1) * periodNanos;
+            }
+            entry.mDeadlineNanos = next;
+            link(entry);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the entry was pending.
+     */
+    boolean cancel(Entry entry) {
+        mLock.lock();
+        try {
+            entry.mStopped = true;
+            if (entry.mSlot < 0) {
+                return false;
+            }
+            unlink(entry);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Move the due entries to 'expired'.
+     */
+    void advanceTo(long nowNanos, ArrayList<Entry> expired) {
+        mLock.lock();
+        try {
+            long nowTick = (nowNanos - mStartNanos) / TICK_NANOS;
+            while (true) {
+                long next = nextTick();
+                if (next > nowTick) {
+                    // nothing to do until 'next'. skip the empty slots.
+                    mCurrentTick = Math.max(mCurrentTick, nowTick + 1);
+                    return;
+                }
+                mCurrentTick = next;
+                processTick(next, expired);
+                mCurrentTick = next + 1;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return nanoTime of the next tick which has something to do. Long.MAX_VALUE if no entry is pending.
+     */
+    long nextDeadlineNanos() {
+        mLock.lock();
+        try {
+            long next = nextTick();
+            return next == Long.MAX_VALUE ? Long.MAX_VALUE : mStartNanos + next * TICK_NANOS;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void loop() {
+        ArrayList<Entry> expired = new ArrayList<Entry>();
+        while (true) {
+            mLock.lock();
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    advanceTo(now, expired);
+                    if (!expired.isEmpty()) {
+                        break;
+                    }
+                    long next = nextTick();
+                    mWakeTick = next;
+                    if (next == Long.MAX_VALUE) {
+                        mChanged.awaitUninterruptibly();
+                    } else {
+                        mChanged.awaitNanos(mStartNanos + next * TICK_NANOS - now);
+                    }
+                    mWakeTick = Long.MIN_VALUE;
+                }
+            } catch (InterruptedException e) {
+                // nobody interrupts this thread
+            } finally {
+                mWakeTick = Long.MIN_VALUE;
+                mLock.unlock();
+            }
+
+            for (int i = 0; i < expired.size(); i++) {
+                try {
+                    expired.get(i).expire();
+                } catch (RuntimeException e) {
+                    // report it without stopping the other timers
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * mLock must be held.
+     * @return the first tick which has something to do. Long.MAX_VALUE if no entry is pending.
+     */
+    private long nextTick() {
+        long next = Long.MAX_VALUE;
+        if (mNumEntries[0] > 0) {
+            for (int i = 0; i < SLOTS; i++) {
+                long tick = mCurrentTick + i;
+                if (mSlots[(int) (tick & MASK)] != null) {
+                    next = tick;
+                    break;
+                }
+            }
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            if (mNumEntries[level] > 0) {
+                // the slots of this level and above move down when the level below wraps around
+                int shift = BITS * level;
+                long wrap = ((mCurrentTick + (1L << shift) - 1) >>> shift) << shift;
+                return Math.min(next, wrap);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * mLock must be held.
+     */
+    private void processTick(long tick, ArrayList<Entry> expired) {
+        if ((tick & MASK) == 0) {
+            // the levels wrapped around. move the current slots down, from the lowest level.
+            for (int level = 1; level < LEVELS; level++) {
+                int index = (int) ((tick >>> (BITS * level)) & MASK);
+                Entry entry = detach(level * SLOTS + index, level);
+                while (entry != null) {
+                    Entry next = entry.mNext;
+                    link(entry);
+                    entry = next;
+                }
+                if (index != 0) {
+                    break;
+                }
+            }
+        }
+
+        Entry entry = detach((int) (tick & MASK), 0);
+        while (entry != null) {
+            Entry next = entry.mNext;
+            if (entry.mDeadlineTick > tick) {
+                // was too far for the wheel
+                link(entry);
+            } else {
+                entry.mNext = null;
+                expired.add(entry);
+            }
+            entry = next;
+        }
+    }
+
+    /**
+     * Unlink all the entries of the slot.
+     * @return the first entry. The entries are still linked through mNext.
+     */
+    private Entry detach(int slot, int level) {
+        Entry head = mSlots[slot];
+        mSlots[slot] = null;
+        for (Entry entry = head; entry != null; entry = entry.mNext) {
+            entry.mSlot = -1;
+            entry.mPrev = null;
+            mNumEntries[level]--;
+        }
+        return head;
+    }
+
+    /**
+     * mLock must be held.
+     */
+    private void link(Entry entry) {
+        long deadlineTick = entry.mDeadlineNanos - mStartNanos <= 0 ? 0
+                : (entry.mDeadlineNanos - mStartNanos + TICK_NANOS - 1) / TICK_NANOS;
+        entry.mDeadlineTick = deadlineTick;
+
+        long tick = Math.max(deadlineTick, mCurrentTick);
+        long delta = tick - mCurrentTick;
+        if (delta > MAX_DELTA) {
+            tick = mCurrentTick + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+        int level = 0;
+        while (delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int slot = level * SLOTS + (int) ((tick >>> (BITS * level)) & MASK);
+
+        Entry head = mSlots[slot];
+        entry.mPrev = null;
+        entry.mNext = head;
+        if (head != null) {
+            head.mPrev = entry;
+        }
+        mSlots[slot] = entry;
+        entry.mSlot = slot;
+        mNumEntries[level]++;
+
+        if (tick < mWakeTick) {
+            mChanged.signal();
+        }
+    }
+
+    /**
+     * mLock must be held.
+     */
+    private void unlink(Entry entry) {
+        if (entry.mPrev != null) {
+            entry.mPrev.mNext = entry.mNext;
+        } else {
+            mSlots[entry.mSlot] = entry.mNext;
+        }
+        if (entry.mNext != null) {
+            entry.mNext.mPrev = entry.mPrev;
+        }
+        mNumEntries[entry.mSlot / SLOTS]--;
+        entry.mPrev = null;
+        entry.mNext = null;
+        entry.mSlot = -1;
+    }
+}
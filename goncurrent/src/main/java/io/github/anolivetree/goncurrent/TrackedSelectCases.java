@@ -0,0 +1,410 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SelectCases for a large number of cases. Each channel keeps a watch of the case and tells this select when the
+ * case might have become ready, and select() tries only those cases. A select costs O(ready cases) instead of
+ * O(cases), except that the cases on unbuffered channels are still added to the waiting lists while blocking, since
+ * an unbuffered send or receive needs a waiting peer.
+ *
+ * Ready cases are tried in the order they became ready, not at random. In priority mode the ready case added first
+ * is tried first, which costs O(ready cases) per try.
+ * selectAsync() is inherited: a pending async select waits in the waiting lists of all the channels, so it costs
+ * O(cases) like SelectCases.
+ * The channels refer to this object until clear() is called. Not thread safe.
+ */
+public class TrackedSelectCases extends SelectCases {
+
+    /**
+     * A case watched by a channel.
+     */
+    static final class Watch {
+        final TrackedSelectCases mOwner;
+        final int mIndex;
+        final boolean mReceive;
+        // false after clear(). guarded by mReadyLock of the owner.
+        boolean mActive = true;
+
+        Watch(TrackedSelectCases owner, int index, boolean receive) {
+            mOwner = owner;
+            mIndex = index;
+            mReceive = receive;
+        }
+
+        void signal() {
+            mOwner.markReady(this);
+        }
+    }
+
+    private Watch[] mWatches = new Watch[4];
+    // cases on unbuffered channels
+    private int[] mUnbuffered = new int[4];
+    private int mNumUnbuffered = 0;
+
+    // guards the ready queue and mWaiting. Taken after the lock of a channel, never before.
+    private final ReentrantLock mReadyLock = new ReentrantLock();
+    // FIFO of the cases which might be ready. a case is queued at most once.
+    private int[] mReady = new int[4];
+    private boolean[] mQueued = new boolean[4];
+    private int mReadyHead = 0;
+    private int mNumReady = 0;
+    // context waiting in select(). woken up by the next signal.
+    private ThreadContext mWaiting;
+    // the thread adding its waiters to the channels. Its own signals are ignored since it can't be its own peer.
+    private Thread mRegistering;
+
+    @Override
+    int addCase(BaseChan chan, Object data, long bits) {
+        int index = super.addCase(chan, data, bits);
+        if (index == mWatches.length) {
+            Watch[] watches = new Watch[index * 2];
+            System.arraycopy(mWatches, 0, watches, 0, index);
+            mWatches = watches;
+        }
+        if (chan == null) {
+            mWatches[index] = null;
+            return index;
+        }
+
+        if (chan.capacity() == 0) {
+            if (mNumUnbuffered == mUnbuffered.length) {
+                int[] unbuffered = new int[mNumUnbuffered * 2];
+                System.arraycopy(mUnbuffered, 0, unbuffered, 0, mNumUnbuffered);
+                mUnbuffered = unbuffered;
+            }
+            mUnbuffered[mNumUnbuffered++] = index;
+        }
+
+        mReadyLock.lock();
+        try {
+            if (index >= mQueued.length) {
+                // cases without a channel don't grow the queue, so the index may be far beyond its length
+                int size = Math.max(index + 1, mQueued.length * 2);
+                int[] ready = new int[size];
+                for (int i = 0; i < mNumReady; i++) {
+                    ready[i] = mReady[(mReadyHead + i) % mReady.length];
+                }
+                mReady = ready;
+                mReadyHead = 0;
+                boolean[] queued = new boolean[size];
+                System.arraycopy(mQueued, 0, queued, 0, mQueued.length);
+                mQueued = queued;
+            }
+            // try it once on the next select
+            enqueue(index);
+        } finally {
+            mReadyLock.unlock();
+        }
+
+        Watch watch = new Watch(this, index, data == ThreadContext.sReceiveFlag);
+        mWatches[index] = watch;
+        chan.addWatch(watch);
+        return index;
+    }
+
+    @Override
+    public void setEnabled(int index, boolean enabled) {
+        boolean wasEnabled = isEnabled(index);
+        super.setEnabled(index, enabled);
+        if (enabled && !wasEnabled && mWatches[index] != null) {
+            // signals were not ignored while disabled, but the case may have been dequeued and dropped.
+            markReady(mWatches[index]);
+        }
+    }
+
+    /**
+     * Remove all the cases, and the watches from the channels.
+     */
+    @Override
+    public void clear() {
+        mReadyLock.lock();
+        try {
+            for (int i = 0; i < mNumCases; i++) {
+                if (mWatches[i] != null) {
+                    mWatches[i].mActive = false;
+                }
+            }
+            // cases without a channel don't grow the queue, so it may be shorter than the cases
+            for (int i = 0; i < mQueued.length; i++) {
+                mQueued[i] = false;
+            }
+            mReadyHead = 0;
+            mNumReady = 0;
+        } finally {
+            mReadyLock.unlock();
+        }
+        for (int i = 0; i < mNumCases; i++) {
+            if (mWatches[i] != null) {
+                mChan[i].removeWatch(mWatches[i]);
+                mWatches[i] = null;
+            }
+        }
+        mNumUnbuffered = 0;
+        super.clear();
+    }
+
+    /**
+     * Called by a channel, usually holding its lock.
+     */
+    void markReady(Watch watch) {
+        if (mRegistering == Thread.currentThread()) {
+            return;
+        }
+        mReadyLock.lock();
+        try {
+            if (!watch.mActive) {
+                return;
+            }
+            enqueue(watch.mIndex);
+            ThreadContext waiting = mWaiting;
+            if (waiting != null) {
+                mWaiting = null;
+                waiting.markUnblockedToRetry(null);
+            }
+        } finally {
+            mReadyLock.unlock();
+        }
+    }
+
+    /**
+     * mReadyLock must be held.
+     */
+    private void enqueue(int index) {
+        if (!mQueued[index]) {
+            mQueued[index] = true;
+            mReady[(mReadyHead + mNumReady) % mReady.length] = index;
+            mNumReady++;
+        }
+    }
+
+    /**
+     * @param lowest take the lowest index instead of the oldest one.
+     * @return -1 if no case is queued.
+     */
+    private int dequeue(boolean lowest) {
+        mReadyLock.lock();
+        try {
+            if (mNumReady == 0) {
+                return -1;
+            }
+            if (lowest) {
+                moveLowestToHead();
+            }
+            int index = mReady[mReadyHead];
+            mReadyHead++;
+            if (mReadyHead >= mReady.length) {
+                mReadyHead = 0;
+            }
+            mNumReady--;
+            // signals from now on queue it again
+            mQueued[index] = false;
+            return index;
+        } finally {
+            mReadyLock.unlock();
+        }
+    }
+
+    /**
+     * Move the lowest queued index to the head, keeping the order of the others. mReadyLock must be held.
+     */
+    private void moveLowestToHead() {
+        int lowest = 0;
+        for (int i = 1; i < mNumReady; i++) {
+            if (mReady[(mReadyHead + i) % mReady.length] < mReady[(mReadyHead + lowest) % mReady.length]) {
+                lowest = i;
+            }
+        }
+        int index = mReady[(mReadyHead + lowest) % mReady.length];
+        for (int i = lowest; i > 0; i--) {
+            mReady[(mReadyHead + i) % mReady.length] = mReady[(mReadyHead + i - 1) % mReady.length];
+        }
+        mReady[mReadyHead] = index;
+    }
+
+    @Override
+    public int select() {
+        return selectReady(false, false, 0);
+    }
+
+    @Override
+    public int selectUntil(long deadlineNanos) {
+        return selectReady(false, true, deadlineNanos);
+    }
+
+    @Override
+    public int selectNonblock() {
+        return selectReady(true, false, 0);
+    }
+
+    private int selectReady(boolean nonblock, boolean timed, long deadline) {
+        mData = null;
+        mOk = true;
+
+        ThreadContext context = null;
+        try {
+            context = ThreadContext.get();
+            if (Config.DEBUG_CHECK_STATE) {
+                context.ensureHasNoChan();
+            }
+            WaitStrategy strategy = null;
+
+            while (true) {
+                int index = processReady(context);
+                if (index >= 0) {
+                    return index;
+                }
+                if (nonblock || (timed && deadline - System.nanoTime() <= 0)) {
+                    return -1;
+                }
+
+                // no case is ready. wait for a signal, or for a peer of an unbuffered channel.
+                resetPrioritySelects();
+                if (timed) {
+                    context.prepareToWaitUntil();
+                } else {
+                    if (strategy == null) {
+                        strategy = getWaitStrategy();
+                    }
+                    context.prepareToWait(strategy);
+                }
+                addToUnbufferedChan(context);
+
+                boolean wait;
+                mReadyLock.lock();
+                try {
+                    wait = mNumReady == 0;
+                    if (wait) {
+                        mWaiting = context;
+                    }
+                } finally {
+                    mReadyLock.unlock();
+                }
+                if (!wait && context.cancel()) {
+                    // signaled while registering
+                    context.removeFromAllChannel();
+                    context.clearChan();
+                    continue;
+                }
+
+                boolean woken = timed ? context.awaitUntil(deadline) : context.await();
+                mReadyLock.lock();
+                mWaiting = null;
+                mReadyLock.unlock();
+                context.removeFromAllChannel();
+                if (!woken) {
+                    // interrupted or timed out
+                    return -1;
+                }
+
+                if (context.mUnblockedChanIndex != -1) {
+                    // a peer of an unbuffered channel has taken or handed the data
+                    index = context.mUnblockedChanIndex;
+                    mData = context.mReceivedData;
+                    mBits = context.mReceivedBits;
+                    markReady(mWatches[index]);
+                    return index;
+                }
+                // signaled. try the ready cases.
+                context.clearChan();
+            }
+        } finally {
+            context.clearChan();
+        }
+    }
+
+    /**
+     * Try the queued cases until one succeeds. A case which would block is dropped until it is signaled again.
+     * @return index of the case. -1 if none is ready.
+     */
+    private int processReady(ThreadContext context) {
+        boolean priority = nextSelectInPriorityOrder();
+        while (true) {
+            int index = dequeue(priority);
+            if (index < 0) {
+                return -1;
+            }
+            BaseChan ch = mChan[index];
+            if (ch == null || !mEnabled[index]) {
+                continue;
+            }
+            boolean receive = mSendData[index] == ThreadContext.sReceiveFlag;
+            if (!(receive ? ch.looksReadyToReceive() : ch.looksReadyToSend())) {
+                // the state was written before the signal, so a change after this read signals again
+                continue;
+            }
+            boolean done;
+            ch.mLock.lock();
+            try {
+                if (receive) {
+                    done = ch.receiveForSelect(this, context);
+                } else {
+                    done = ch.sendForSelect(mSendData[index], mSendBits[index]);
+                }
+            } finally {
+                ch.mLock.unlock();
+            }
+            if (done) {
+                if (!receive) {
+                    mData = null;
+                }
+                // the channel may still be ready. try it again on the next select.
+                markReady(mWatches[index]);
+                return index;
+            }
+        }
+    }
+
+    private void addToUnbufferedChan(ThreadContext context) {
+        mRegistering = Thread.currentThread();
+        try {
+            for (int i = 0; i < mNumUnbuffered; i++) {
+                int index = mUnbuffered[i];
+                if (!mEnabled[index]) {
+                    continue;
+                }
+                BaseChan ch = mChan[index];
+                Waiter waiter = context.addWaiter(ch, mSendData[index], mSendBits[index], index);
+                ch.mLock.lock();
+                try {
+                    if (waiter.isReceive()) {
+                        ch.addToReceiverList(waiter);
+                    } else {
+                        ch.addToSenderList(waiter);
+                    }
+                } finally {
+                    ch.mLock.unlock();
+                }
+            }
+        } finally {
+            mRegistering = null;
+        }
+    }
+
+    /**
+     * @return the strategy of the channel of the first case. Blocking if there's no channel.
+     */
+    private WaitStrategy getWaitStrategy() {
+        for (int i = 0; i < mNumCases; i++) {
+            if (mChan[i] != null) {
+                return mChan[i].waitStrategy();
+            }
+        }
+        return WaitStrategy.blocking();
+    }
+}
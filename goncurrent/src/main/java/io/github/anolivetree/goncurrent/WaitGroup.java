@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Waits for a number of tasks to finish, like sync.WaitGroup in Go.
+ *
+ *     final WaitGroup wg = new WaitGroup();
+ *     for (int i = 0; i < n; i++) {
+ *         wg.add(1);
+ *         Go.go(new Runnable() {
+ *             public void run() {
+ *                 work();
+ *                 wg.done();
+ *             }
+ *         });
+ *     }
+ *     wg.await();
+ *
+ * add() and done() are a single atomic update, and no lock is taken unless someone waits when the counter reaches
+ * zero. The waiters wait on a channel which is created by the first waiter and closed at zero, so chan() can be
+ * used in select. The group can be reused after the counter has reached zero. Thread safe.
+ */
+public class WaitGroup {
+
+    static private final AtomicIntegerFieldUpdater<WaitGroup> sCountUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(WaitGroup.class, "mCount");
+    // the class literal can't carry the type argument of mChan
+    @SuppressWarnings("unchecked")
+    static private final AtomicReferenceFieldUpdater<WaitGroup, Chan<Void>> sChanUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(WaitGroup.class, (Class<Chan<Void>>) (Class<?>) Chan.class,
+                    "mChan");
+
+    private volatile int mCount = 0;
+    // closed when the counter reaches zero. null until someone waits.
+    private volatile Chan<Void> mChan;
+
+    /**
+     * Add delta to the counter. Wakes up the waiters when it reaches zero.
+     */
+    public void add(int delta) {
+        int count = sCountUpdater.addAndGet(this, delta);
+        if (count < 0) {
+            throw new IllegalStateException("negative WaitGroup counter");
+        }
+        if (count == 0) {
+            Chan<Void> chan = sChanUpdater.getAndSet(this, null);
+            if (chan != null) {
+                chan.close();
+            }
+        }
+    }
+
+    /**
+     * Same as add(-1).
+     */
+    public void done() {
+        add(-1);
+    }
+
+    /**
+     * @return the current value of the counter.
+     */
+    public int count() {
+        return mCount;
+    }
+
+    /**
+     * @return a channel which is closed when the counter reaches zero. Already closed if it is zero.
+     */
+    public Chan<Void> chan() {
+        while (true) {
+            Chan<Void> chan = mChan;
+            if (chan != null) {
+                return chan;
+            }
+            chan = Chan.create(0);
+            if (sChanUpdater.compareAndSet(this, null, chan)) {
+                // the counter may have reached zero before the channel was published
+                if (mCount == 0 && sChanUpdater.compareAndSet(this, chan, null)) {
+                    chan.close();
+                }
+                return chan;
+            }
+        }
+    }
+
+    /**
+     * Wait until the counter reaches zero.
+     * @return false when interrupted.
+     */
+    public boolean await() {
+        if (mCount == 0) {
+            return true;
+        }
+        Chan<Void> chan = chan();
+        chan.mLock.lock();
+        try {
+            return chan.receive(false) != Chan.sInterrupted;
+        } finally {
+            if (chan.mLock.isHeldByCurrentThread()) {
+                chan.mLock.unlock();
+            }
+        }
+    }
+}
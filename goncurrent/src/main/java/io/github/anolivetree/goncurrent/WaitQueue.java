@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+/**
+ * Waiters of a channel in FIFO order. Intrusive doubly-linked list, so that add, removeFirst and remove are O(1).
+ * Modified only while holding the lock of the channel. size() can be read without the lock.
+ */
+final class WaitQueue {
+
+    private Waiter mHead;
+    private Waiter mTail;
+    private volatile int mSize = 0;
+
+    void add(Waiter waiter) {
+        if (waiter.mQueue != null) {
+            throw new RuntimeException("waiter is already in a queue");
+        }
+        waiter.mQueue = this;
+        waiter.mPrev = mTail;
+        waiter.mNext = null;
+        if (mTail == null) {
+            mHead = waiter;
+        } else {
+            mTail.mNext = waiter;
+        }
+        mTail = waiter;
+        mSize = mSize + 1;
+    }
+
+    /**
+     * @return null if empty.
+     */
+    Waiter removeFirst() {
+        Waiter waiter = mHead;
+        if (waiter != null) {
+            unlink(waiter);
+        }
+        return waiter;
+    }
+
+    /**
+     * @return false if the waiter is not in this queue.
+     */
+    boolean remove(Waiter waiter) {
+        if (waiter.mQueue != this) {
+            return false;
+        }
+        unlink(waiter);
+        return true;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    private void unlink(Waiter waiter) {
+        Waiter prev = waiter.mPrev;
+        Waiter next = waiter.mNext;
+        if (prev == null) {
+            mHead = next;
+        } else {
+            prev.mNext = next;
+        }
+        if (next == null) {
+            mTail = prev;
+        } else {
+            next.mPrev = prev;
+        }
+        waiter.mQueue = null;
+        waiter.mPrev = null;
+        waiter.mNext = null;
+        mSize = mSize - 1;
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a blocked send(), receive() or select() waits for its peer. Pass one to Chan.create(). Select waits with the
+ * strategy of the channel of its first case.
+ */
+public abstract class WaitStrategy {
+
+    /**
+     * Default spin limit of adaptive(). On a single CPU spinning only wastes the time slice of the peer, but yielding
+     * to it before parking still helps.
+     */
+    static final int DEFAULT_SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 1;
+
+    // number of yields between spinning and parking
+    private static final int YIELDS = 2;
+    private static final int SPIN_STEP = 16;
+
+    // Thread.onSpinWait() on Java 9 and later. A no-op before.
+    private static final MethodHandle sOnSpinWait = onSpinWaitHandle();
+
+    /**
+     * Default strategy of a channel. Spins and yields before parking. The number of spins adapts between 0 and
+     * DEFAULT_SPIN_LIMIT: it grows while the peer shows up before parking, and shrinks when it doesn't.
+     * Each call returns a new instance. Channels sharing an instance share the adaptation.
+     */
+    public static WaitStrategy adaptive() {
+        return new Adaptive(DEFAULT_SPIN_LIMIT);
+    }
+
+    /**
+     * Same as adaptive() with the given upper limit of spins. 0 parks immediately.
+     */
+    public static WaitStrategy adaptive(int spinLimit) {
+        if (spinLimit < 0) {
+            throw new IllegalArgumentException("spinLimit < 0");
+        }
+        return new Adaptive(spinLimit);
+    }
+
+    /**
+     * Spins until the peer shows up. Lowest latency, but occupies a CPU while waiting. The peer doesn't have to unpark
+     * the waiting thread.
+     */
+    public static WaitStrategy busySpin() {
+        return BUSY_SPIN;
+    }
+
+    /**
+     * Calls Thread.yield() until the peer shows up. The peer doesn't have to unpark the waiting thread.
+     */
+    public static WaitStrategy yielding() {
+        return YIELDING;
+    }
+
+    /**
+     * Parks for the given period at a time and checks whether the peer has shown up. The peer doesn't have to unpark
+     * the waiting thread, so its send() or receive() is cheaper, but the waiting thread may notice the peer up to
+     * one period late.
+     */
+    public static WaitStrategy timedPark(long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period <= 0");
+        }
+        return new TimedPark(unit.toNanos(period));
+    }
+
+    /**
+     * Parks immediately until the peer unparks the waiting thread.
+     */
+    public static WaitStrategy blocking() {
+        return BLOCKING;
+    }
+
+    private static final WaitStrategy BUSY_SPIN = new BusySpin();
+    private static final WaitStrategy YIELDING = new Yielding();
+    private static final WaitStrategy BLOCKING = new Adaptive(0);
+
+    WaitStrategy() {
+    }
+
+    /**
+     * Wait until the context is woken up. Called without holding any channel lock.
+     * @return false when interrupted before anyone claims the context.
+     */
+    abstract boolean await(ThreadContext context);
+
+    /**
+     * Wait until the context is woken up or the deadline passes, parking regardless of the strategy. The context
+     * must have been prepared with ThreadContext.prepareToWaitUntil() so that the waker unparks.
+     * @param deadline in System.nanoTime()
+     * @return false when interrupted or timed out before anyone claims the context.
+     */
+    static boolean awaitUntil(ThreadContext context, long deadline) {
+        while (!context.isWoken()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                if (context.cancel()) {
+                    return false;
+                }
+                // claimed right now. the waker is about to set the result.
+                while (!context.isWoken()) {
+                    Thread.yield();
+                }
+                return true;
+            }
+            LockSupport.parkNanos(context, remaining);
+            if (isCancelledByInterrupt(context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the waker has to unpark the waiting thread.
+     */
+    boolean needsUnpark() {
+        return true;
+    }
+
+    /**
+     * @return true if it's interrupted and nobody has claimed the context. If a peer has claimed it, the interrupt
+     * is kept for the next wait, and the caller waits for the peer.
+     */
+    static boolean isCancelledByInterrupt(ThreadContext context) {
+        if (!Thread.interrupted()) {
+            return false;
+        }
+        if (context.cancel()) {
+            return true;
+        }
+        Thread.currentThread().interrupt();
+        return false;
+    }
+
+    /**
+     * Thread.onSpinWait() through a method handle, since this library is built for Java 7. It tells the CPU that
+     * this is a spin loop, e.g. PAUSE on x86, which leaves the core to the hyperthread sibling, often the peer being
+     * waited for.
+     */
+    static void onSpinWait() {
+        try {
+            sOnSpinWait.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static private MethodHandle onSpinWaitHandle() {
+        MethodType type = MethodType.methodType(void.class);
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", type);
+        } catch (Exception e) {
+            // before Java 9
+        }
+        try {
+            return MethodHandles.lookup().findStatic(WaitStrategy.class, "noSpinWait", type);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static private void noSpinWait() {
+    }
+
+    static private final class Adaptive extends WaitStrategy {
+
+        private final int mLimit;
+        // racy updates are harmless
+        private int mSpins;
+
+        Adaptive(int limit) {
+            mLimit = limit;
+            mSpins = limit;
+        }
+
+        @Override
+        boolean await(ThreadContext context) {
+            if (mLimit > 0) {
+                int spins = mSpins;
+                for (int i = 0; i < spins; i++) {
+                    if (context.isWoken()) {
+                        grow(spins);
+                        return true;
+                    }
+                    onSpinWait();
+                }
+                for (int i = 0; i < YIELDS; i++) {
+                    Thread.yield();
+                    if (context.isWoken()) {
+                        grow(spins);
+                        return true;
+                    }
+                }
+                mSpins = spins >> 1;
+            }
+            while (!context.isWoken()) {
+                LockSupport.park(context);
+                if (isCancelledByInterrupt(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow(int spins) {
+            mSpins = Math.min(mLimit, (spins << 1) + SPIN_STEP);
+        }
+    }
+
+    static private final class BusySpin extends WaitStrategy {
+
+        @Override
+        boolean await(ThreadContext context) {
+            while (!context.isWoken()) {
+                if (isCancelledByInterrupt(context)) {
+                    return false;
+                }
+                onSpinWait();
+            }
+            return true;
+        }
+
+        @Override
+        boolean needsUnpark() {
+            return false;
+        }
+    }
+
+    static private final class Yielding extends WaitStrategy {
+
+        @Override
+        boolean await(ThreadContext context) {
+            while (!context.isWoken()) {
+                Thread.yield();
+                if (isCancelledByInterrupt(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean needsUnpark() {
+            return false;
+        }
+    }
+
+    static private final class TimedPark extends WaitStrategy {
+
+        private final long mPeriodNanos;
+
+        TimedPark(long periodNanos) {
+            mPeriodNanos = periodNanos;
+        }
+
+        @Override
+        boolean await(ThreadContext context) {
+            while (!context.isWoken()) {
+                LockSupport.parkNanos(context, mPeriodNanos);
+                if (isCancelledByInterrupt(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean needsUnpark() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2015 Hiroshi Sakurai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.anolivetree.goncurrent;
+
+/**
+ * One case of a send, receive or select waiting on a channel. Owned and reused by a ThreadContext.
+ * Linked into the WaitQueue of the channel without any allocation.
+ */
+final class Waiter {
+
+    final ThreadContext mContext;
+
+    BaseChan mChan;
+    // data to send, ThreadContext.sReceiveFlag, or ThreadContext.sSendBitsFlag
+    Object mData;
+    // value to send to a primitive channel
+    long mBits;
+    // index of the case in the select
+    int mIndex;
+
+    // links of the WaitQueue. guarded by the lock of mChan.
+    WaitQueue mQueue;
+    Waiter mPrev;
+    Waiter mNext;
+
+    Waiter(ThreadContext context) {
+        mContext = context;
+    }
+
+    boolean isReceive() {
+        return mData == ThreadContext.sReceiveFlag;
+    }
+
+    void set(BaseChan chan, Object data, long bits, int index) {
+        mChan = chan;
+        mData = data;
+        mBits = bits;
+        mIndex = index;
+    }
+
+    void clear() {
+        mChan = null;
+        mData = null;
+    }
+}
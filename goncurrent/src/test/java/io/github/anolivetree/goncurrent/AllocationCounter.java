@@ -0,0 +1,31 @@
+package io.github.anolivetree.goncurrent;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts bytes allocated by the current thread. Needs a JVM supporting com.sun.management.ThreadMXBean.
+ */
+class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean sBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private long b1;
+    private long b2;
+
+    public void start() {
+        b1 = allocatedBytes();
+    }
+
+    public void stop() {
+        b2 = allocatedBytes();
+    }
+
+    public void dump(String label, long numOps) {
+        System.out.printf("%10s: %.1f bytes/op\n", label, (double) (b2 - b1) / numOps);
+    }
+
+    private static long allocatedBytes() {
+        return sBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
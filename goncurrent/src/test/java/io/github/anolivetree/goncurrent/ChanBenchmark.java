@@ -2,8 +2,15 @@ package io.github.anolivetree.goncurrent;
 
 import org.junit.Test;
 
+import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChanBenchmark {
 
@@ -23,6 +30,36 @@ public class ChanBenchmark {
                 timer.dump("ch");
             }
 
+            // channel parking without spinning
+            {
+                Chan<Integer> ch = Chan.create(depth);
+                ch.setSpinLimit(0);
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_chan(ch, num, 1);
+                timer.stop();
+                timer.dump("ch(park)");
+            }
+
+            // primitive channel
+            {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_intChan(depth, num);
+                timer.stop();
+                timer.dump("int");
+            }
+
+            // single-producer/single-consumer channel
+            if (depth > 0)
+            {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_chan(Chan.<Integer>createSpsc(depth), num, 1);
+                timer.stop();
+                timer.dump("spsc");
+            }
+
             // linked blocking queue
             if (depth > 0)
             {
@@ -166,8 +203,162 @@ public class ChanBenchmark {
 
     }
 
-    private void benchmark_chan(int depth, final int num, int numThreads) {
+    @Test
+    public void benchmark_waitStrategy() {
+        final int[] depthTable = new int[] { 0, 100 };
+        final int num = 100000;
+        final String[] names = new String[] { "adaptive", "busySpin", "yielding", "timedPark", "blocking" };
+
+        for (int depth : depthTable) {
+            System.out.printf("--depth %d--\n", depth);
+            WaitStrategy[] strategies = new WaitStrategy[] {
+                    WaitStrategy.adaptive(), WaitStrategy.busySpin(), WaitStrategy.yielding(),
+                    WaitStrategy.timedPark(10, TimeUnit.MICROSECONDS), WaitStrategy.blocking() };
+            for (int i = 0; i < strategies.length; i++) {
+                if (strategies[i] == WaitStrategy.busySpin() && Runtime.getRuntime().availableProcessors() < 2) {
+                    // each handoff would wait for the time slice of the spinning thread to run out
+                    System.out.printf("%10s: skipped on a single CPU\n", names[i]);
+                    continue;
+                }
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_chan(Chan.<Integer>create(depth, strategies[i]), num, 1);
+                timer.stop();
+                timer.dump(names[i]);
+            }
+        }
+    }
+
+    @Test
+    public void benchmark_batch() {
+        final int[] depthTable = new int[] { 64, 1024 };
+        final int num = 1000000;
+
+        for (int depth : depthTable) {
+            System.out.printf("--depth %d--\n", depth);
+            {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_chan(depth, num, 1);
+                timer.stop();
+                timer.dump("ch");
+            }
+            {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_batch(Chan.<Integer>create(depth), num, 64);
+                timer.stop();
+                timer.dump("ch(64)");
+            }
+            {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_chan(Chan.<Integer>createLockFree(depth), num, 1);
+                timer.stop();
+                timer.dump("lf");
+            }
+            {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_batch(Chan.<Integer>createLockFree(depth), num, 64);
+                timer.stop();
+                timer.dump("lf(64)");
+            }
+        }
+    }
+
+    private void benchmark_batch(final Chan<Integer> ch, final int num, final int batchSize) {
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Integer[] batch = new Integer[batchSize];
+                for (int i = 0; i < num; i += batchSize) {
+                    for (int j = 0; j < batchSize; j++) {
+                        batch[j] = i + j;
+                    }
+                    ch.sendAll(batch);
+                }
+            }
+        });
+        th.start();
+
+        Integer[] dst = new Integer[batchSize];
+        int received = 0;
+        while (received < num) {
+            received += ch.receiveBatch(dst, batchSize);
+        }
+    }
+
+    /**
+     * Bytes allocated by the receiving thread per receive. The sender sends the same object so that boxing doesn't
+     * count.
+     */
+    @Test
+    public void benchmark_allocation() {
+        final int[] depthTable = new int[] { 0, 100 };
+        final int num = 1000000;
+        final String[] names = new String[] { "receive", "result", "mutable", "select", "cases" };
+
+        for (int depth : depthTable) {
+            System.out.printf("--depth %d--\n", depth);
+            for (int i = 0; i < names.length; i++) {
+                // warm up, then measure
+                benchmark_allocation(depth, num, i);
+                AllocationCounter counter = new AllocationCounter();
+                counter.start();
+                benchmark_allocation(depth, num, i);
+                counter.stop();
+                counter.dump(names[i], num);
+            }
+        }
+    }
+
+    private void benchmark_allocation(int depth, final int num, int type) {
         final Chan<Integer> ch = Chan.create(depth);
+        final Integer data = 1;
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < num; i++) {
+                    ch.send(data);
+                }
+            }
+        });
+        th.start();
+
+        if (type == 0) {
+            for (int i = 0; i < num; i++) {
+                ch.receive();
+            }
+        } else if (type == 1) {
+            for (int i = 0; i < num; i++) {
+                ch.receiveWithResult();
+            }
+        } else if (type == 2) {
+            Chan.MutableResult<Integer> result = new Chan.MutableResult<Integer>();
+            for (int i = 0; i < num; i++) {
+                ch.receiveWithResult(result);
+            }
+        } else if (type == 3) {
+            Select select = new Select();
+            for (int i = 0; i < num; i++) {
+                select.receive(ch);
+                select.select();
+            }
+        } else {
+            SelectCases cases = new SelectCases();
+            cases.addReceive(ch);
+            for (int i = 0; i < num; i++) {
+                cases.select();
+            }
+        }
+    }
+
+    private void benchmark_chan(int depth, final int num, int numThreads) {
+        benchmark_chan(Chan.<Integer>create(depth), num, numThreads);
+    }
+
+    private void benchmark_chan(final Chan<Integer> ch, final int num, int numThreads) {
         for (int i = 0; i < numThreads; i++) {
             Thread th = new Thread(new Runnable() {
                 @Override
@@ -185,6 +376,23 @@ public class ChanBenchmark {
         }
     }
 
+    private void benchmark_intChan(int depth, final int num) {
+        final IntChan ch = IntChan.create(depth);
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < num; i++) {
+                    ch.send(i);
+                }
+            }
+        });
+        th.start();
+
+        for (int i = 0; i < num; i++) {
+            ch.receive();
+        }
+    }
+
     private void benchmark_linkedlist(int depth, final int num, int numThreads) {
         final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>(depth);
         for (int i = 0; i < numThreads; i++) {
@@ -237,4 +445,306 @@ public class ChanBenchmark {
     }
 
 
-}
\ No newline at end of file
+
+    /**
+     * Start and stop a million pending timers, on the timing wheel and on a ScheduledThreadPoolExecutor.
+     */
+    @Test
+    public void benchmark_timers() {
+        final int num = 1000000;
+        for (int round = 0; round < 2; round++) {
+            // the first round is a warm-up
+            Random random = new Random(1);
+            Time.Timer[] timers = new Time.Timer[num];
+            Timer timer = new Timer();
+            timer.start();
+            for (int i = 0; i < num; i++) {
+                timers[i] = Time.newTimer(1000 + random.nextInt(3600000), TimeUnit.MILLISECONDS);
+            }
+            for (int i = 0; i < num; i++) {
+                timers[i].stop();
+            }
+            timer.stop();
+            if (round == 1) {
+                timer.dump("wheel");
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            Random random = new Random(1);
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+            ScheduledFuture<?>[] futures = new ScheduledFuture<?>[num];
+            Timer timer = new Timer();
+            timer.start();
+            for (int i = 0; i < num; i++) {
+                futures[i] = executor.schedule(task, 1000 + random.nextInt(3600000), TimeUnit.MILLISECONDS);
+            }
+            for (int i = 0; i < num; i++) {
+                futures[i].cancel(false);
+            }
+            timer.stop();
+            executor.shutdown();
+            if (round == 1) {
+                timer.dump("executor");
+            }
+        }
+    }
+
+    /**
+     * Pairs of goroutines ping-pong over unbuffered channels. One million goroutines on virtual threads, fewer on
+     * the thread pool of older JDKs.
+     */
+    @Test
+    public void benchmark_goroutines() {
+        final int num = Go.isVirtual() ? 1000000 : 10000;
+        final int rounds = 10;
+        System.out.printf("--%d goroutines on %s--\n", num, Go.isVirtual() ? "virtual threads" : "thread pool");
+        final WaitGroup wg = new WaitGroup();
+        Timer timer = new Timer();
+        timer.start();
+        wg.add(num);
+        for (int i = 0; i < num / 2; i++) {
+            final Chan<Integer> ping = Chan.create(0);
+            final Chan<Integer> pong = Chan.create(0);
+            Go.go(new Runnable() {
+                @Override
+                public void run() {
+                    for (int r = 0; r < rounds; r++) {
+                        ping.send(r);
+                        pong.receive();
+                    }
+                    wg.done();
+                }
+            });
+            Go.go(new Runnable() {
+                @Override
+                public void run() {
+                    for (int r = 0; r < rounds; r++) {
+                        pong.send(ping.receive());
+                    }
+                    wg.done();
+                }
+            });
+        }
+        wg.await();
+        timer.stop();
+        timer.dump("go");
+    }
+
+    /**
+     * A thread sends to a channel, and the consumer is a thread or a chain of receiveAsync() callbacks on an
+     * executor.
+     */
+    @Test
+    public void benchmark_async() {
+        final int num = 200000;
+        for (int depth : new int[] { 0, 100 }) {
+            System.out.printf("--depth %d--\n", depth);
+            for (int round = 0; round < 2; round++) {
+                // the first round is a warm-up
+                final Chan<Integer> ch = Chan.create(depth);
+                final Chan<Integer> done = Chan.create(1);
+                Timer timer = new Timer();
+                timer.start();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < num; i++) {
+                            ch.receive();
+                        }
+                        done.send(0);
+                    }
+                }).start();
+                sendIntegers(ch, num);
+                done.receive();
+                timer.stop();
+                if (round == 1) {
+                    timer.dump("thread");
+                }
+            }
+            for (int round = 0; round < 2; round++) {
+                final Chan<Integer> ch = Chan.create(depth);
+                final Chan<Integer> done = Chan.create(1);
+                final ExecutorService executor = Executors.newSingleThreadExecutor();
+                Timer timer = new Timer();
+                timer.start();
+                ch.receiveAsync(new Chan.ReceiveCallback<Integer>() {
+                    int mCount = 0;
+
+                    @Override
+                    public void onReceive(Integer data, boolean ok) {
+                        if (++mCount == num) {
+                            done.send(0);
+                        } else {
+                            ch.receiveAsync(this, executor);
+                        }
+                    }
+                }, executor);
+                sendIntegers(ch, num);
+                done.receive();
+                timer.stop();
+                executor.shutdown();
+                if (round == 1) {
+                    timer.dump("async");
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel a tree of a million contexts, and create and cancel a million contexts with a timeout.
+     */
+    @Test
+    public void benchmark_context() {
+        final int fanOut = 1000;
+        for (int round = 0; round < 2; round++) {
+            // the first round is a warm-up
+            Context root = Context.withCancel(Context.background());
+            for (int i = 0; i < fanOut; i++) {
+                Context child = Context.withCancel(root);
+                for (int j = 0; j < fanOut; j++) {
+                    Context.withCancel(child);
+                }
+            }
+            Timer timer = new Timer();
+            timer.start();
+            root.cancel();
+            timer.stop();
+            if (round == 1) {
+                timer.dump("tree");
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            Context root = Context.withCancel(Context.background());
+            Timer timer = new Timer();
+            timer.start();
+            for (int i = 0; i < fanOut * fanOut; i++) {
+                Context.withTimeout(root, 1, TimeUnit.SECONDS).cancel();
+            }
+            timer.stop();
+            if (round == 1) {
+                timer.dump("timeout");
+            }
+        }
+    }
+
+    /**
+     * Threads report finished work items through a done channel, or a WaitGroup.
+     */
+    @Test
+    public void benchmark_waitGroup() {
+        final int numThreads = 4;
+        final int num = 250000;
+        for (int round = 0; round < 2; round++) {
+            // the first round is a warm-up
+            final Chan<Integer> done = Chan.create(numThreads * num);
+            Timer timer = new Timer();
+            timer.start();
+            for (int t = 0; t < numThreads; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < num; i++) {
+                            done.send(0);
+                        }
+                    }
+                }).start();
+            }
+            for (int i = 0; i < numThreads * num; i++) {
+                done.receive();
+            }
+            timer.stop();
+            if (round == 1) {
+                timer.dump("chan");
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            final WaitGroup wg = new WaitGroup();
+            Timer timer = new Timer();
+            timer.start();
+            wg.add(numThreads * num);
+            for (int t = 0; t < numThreads; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < num; i++) {
+                            wg.done();
+                        }
+                    }
+                }).start();
+            }
+            wg.await();
+            timer.stop();
+            if (round == 1) {
+                timer.dump("waitGroup");
+            }
+        }
+    }
+
+    @Test
+    public void benchmark_scopeShutdown() {
+        final int numStages = 100;
+        for (int depth : new int[] { 0, 10 }) {
+            for (int round = 0; round < 6; round++) {
+                // the first round is a warm-up
+                Scope scope = new Scope();
+                final AtomicInteger received = new AtomicInteger();
+                final Chan<Integer> first = scope.newChan(depth);
+                scope.go(new ErrGroup.Task() {
+                    @Override
+                    public void run(Context ctx) {
+                        Select select = new Select();
+                        Integer data = 0;
+                        while (select.send(first, data).receive(ctx.done()).select() == 0) {
+                        }
+                    }
+                });
+                Chan<Integer> in = first;
+                for (int i = 0; i < numStages; i++) {
+                    final Chan<Integer> stageIn = in;
+                    final Chan<Integer> stageOut = scope.newChan(depth);
+                    scope.go(new ErrGroup.Task() {
+                        @Override
+                        public void run(Context ctx) {
+                            for (Integer v : stageIn) {
+                                stageOut.send(v + 1);
+                            }
+                        }
+                    });
+                    in = stageOut;
+                }
+                final Chan<Integer> last = in;
+                scope.go(new ErrGroup.Task() {
+                    @Override
+                    public void run(Context ctx) {
+                        for (Integer v : last) {
+                            received.incrementAndGet();
+                        }
+                    }
+                });
+                TestUtil.sleep(100);
+
+                // Timer has a resolution of 1ms
+                long start = System.nanoTime();
+                scope.close();
+                long elapsed = System.nanoTime() - start;
+                if (round > 0) {
+                    System.out.printf("depth=%d stages=%d received=%d shutdown: %dus\n", depth, numStages,
+                            received.get(), TimeUnit.NANOSECONDS.toMicros(elapsed));
+                }
+            }
+        }
+    }
+
+    private static void sendIntegers(Chan<Integer> ch, int num) {
+        Integer data = 1;
+        for (int i = 0; i < num; i++) {
+            ch.send(data);
+        }
+    }
+}
@@ -4,6 +4,12 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -149,6 +155,20 @@ public class ChanTest {
         assertEquals(99, num);
     }
 
+    @Test
+    public void receiveWithMutableResult_afterClosedWithObject_expectNotOk() {
+        final Chan<Integer> ch = Chan.create(2);
+        ch.send(1);
+        ch.close(99);
+
+        Chan.MutableResult<Integer> result = new Chan.MutableResult<Integer>();
+        assertTrue(ch.receiveWithResult(result));
+        assertEquals(1, (int) result.data);
+        assertTrue(!ch.receiveWithResult(result));
+        assertEquals(99, (int) result.data);
+        assertTrue(!result.ok);
+    }
+
     @Test
     public void whileWaitingOnSend_close_expectException() {
 
@@ -259,6 +279,216 @@ public class ChanTest {
         done.receive();
     }
 
+    @Test
+    public void whileWaitingOnReceive_interrupt_expectNextReceiveWaits() {
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> done = Chan.create(0);
+
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(null, ch.receive());
+                // the interrupt must not leave a stale wakeup behind
+                Timer.assertBlockedForAround(new Runnable() {
+                    @Override
+                    public void run() {
+                        Integer num = ch.receive();
+                        assertEquals(1, (int) num);
+                        done.send(0);
+                    }
+                }, 300, 100);
+            }
+        });
+        th.start();
+
+        TestUtil.sleep(100);
+        th.interrupt();
+
+        TestUtil.sleep(300);
+        ch.send(1);
+
+        done.receive();
+    }
+
+    @Test
+    public void manyWaiters_interruptSome_expectOthersReceive() {
+        final int num = 500;
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> results = Chan.create(num);
+
+        Thread[] threads = new Thread[num];
+        for (int i = 0; i < num; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Integer val = ch.receive();
+                    results.send(val == null ? -1 : val);
+                }
+            });
+            threads[i].start();
+        }
+        TestUtil.sleep(500);
+
+        // waiters in the middle of the list are removed
+        for (int i = 1; i < num; i += 2) {
+            threads[i].interrupt();
+        }
+        for (int i = 0; i < num / 2; i++) {
+            ch.send(i);
+        }
+
+        boolean[] received = new boolean[num / 2];
+        int numInterrupted = 0;
+        for (int i = 0; i < num; i++) {
+            int val = results.receive();
+            if (val == -1) {
+                numInterrupted++;
+            } else {
+                assertTrue(!received[val]);
+                received[val] = true;
+            }
+        }
+        assertEquals(num / 2, numInterrupted);
+    }
+
+    @Test
+    public void sendAll_moreThanDepth_expectBlockUntilReceived() {
+        final Chan<Integer> ch = Chan.create(3);
+        final Chan<Integer> done = Chan.create(0);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Timer.assertBlockedForAround(new Runnable() {
+                    @Override
+                    public void run() {
+                        assertEquals(5, ch.sendAll(new Integer[] { 0, 1, 2, 3, 4 }));
+                    }
+                }, 300, 100);
+                done.send(0);
+            }
+        }).start();
+
+        TestUtil.sleep(300);
+        assertEquals(3, ch.length());
+        Integer[] dst = new Integer[10];
+        // the buffer and the waiting sender
+        assertEquals(4, ch.receiveBatch(dst, 10));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) dst[i]);
+        }
+        assertEquals(4, (int) ch.receive());
+        done.receive();
+    }
+
+    @Test
+    public void receiveBatch_onEmpty_expectWait() {
+        final Chan<Integer> ch = Chan.create(0);
+
+        TestUtil.asyncSleepAndSendIntegersAndClose(300, ch, null, 1);
+
+        final Integer[] dst = new Integer[4];
+        Timer.assertBlockedForAround(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(1, ch.receiveBatch(dst, 4));
+            }
+        }, 300, 100);
+        assertEquals(1, (int) dst[0]);
+        // closed
+        assertEquals(0, ch.receiveBatch(dst, 4));
+    }
+
+    @Test
+    public void whileWaitingOnReceiveBatch_burstSent_expectReceiveAll() {
+        final Chan<Integer> ch = Chan.create(4);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TestUtil.sleep(300);
+                // hands the first one to the waiting receiver and buffers the rest holding the lock
+                assertEquals(4, ch.sendAll(new Integer[] { 0, 1, 2, 3 }));
+            }
+        }).start();
+
+        Integer[] dst = new Integer[10];
+        assertEquals(4, ch.receiveBatch(dst, 10));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) dst[i]);
+        }
+        assertEquals(0, ch.length());
+    }
+
+    @Test
+    public void drainTo_expectNotBlock() {
+        for (Chan<Integer> ch : new Chan[] { Chan.<Integer>create(5), Chan.<Integer>createLockFree(5) }) {
+            ArrayList<Integer> dst = new ArrayList<Integer>();
+            assertEquals(0, ch.drainTo(dst, 10));
+
+            ArrayList<Integer> src = new ArrayList<Integer>();
+            for (int i = 0; i < 5; i++) {
+                src.add(i);
+            }
+            assertEquals(5, ch.sendAll(src));
+            assertEquals(3, ch.drainTo(dst, 3));
+            assertEquals(2, ch.drainTo(dst, 10));
+            assertEquals(src, dst);
+        }
+    }
+
+    @Test
+    public void lockFree_sendAllAndReceiveBatch() {
+        final Chan<Integer> ch = Chan.createLockFree(16);
+        final int num = 100000;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Integer[] batch = new Integer[64];
+                for (int i = 0; i < num; i += batch.length) {
+                    for (int j = 0; j < batch.length; j++) {
+                        batch[j] = i + j;
+                    }
+                    ch.sendAll(batch);
+                }
+                ch.close();
+            }
+        }).start();
+
+        Integer[] dst = new Integer[32];
+        int expected = 0;
+        int n;
+        while ((n = ch.receiveBatch(dst, dst.length)) > 0) {
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected, (int) dst[i]);
+                expected++;
+            }
+        }
+        assertEquals((num + 63) / 64 * 64, expected);
+    }
+
+    @Test
+    public void whileWaitingOnSendAll_interrupt_expectReturnCount() {
+        final Chan<Integer> ch = Chan.create(2);
+        final Chan<Integer> done = Chan.create(0);
+
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(2, ch.sendAll(new Integer[] { 0, 1, 2, 3 }));
+                done.send(0);
+            }
+        });
+        th.start();
+
+        TestUtil.sleep(300);
+        th.interrupt();
+
+        done.receive();
+        assertEquals(2, ch.length());
+    }
+
     @Test
     public void lengthCapacity() {
         final Chan<Integer> ch1 = Chan.create(0);
@@ -392,6 +622,536 @@ public class ChanTest {
         }
     }
 
+    @Test
+    public void pingPong_spinning() {
+        final Chan<Integer> ping = Chan.create(0);
+        final Chan<Integer> pong = Chan.create(0);
+        ping.setSpinLimit(1 << 10);
+        pong.setSpinLimit(1 << 10);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Integer i : ping) {
+                    pong.send(i + 1);
+                }
+            }
+        }).start();
+
+        for (int i = 0; i < 10000; i++) {
+            ping.send(i);
+            assertEquals(i + 1, (int) pong.receive());
+        }
+        ping.close();
+    }
+
+    @Test
+    public void setSpinLimit_negative_expectException() {
+        boolean hasException = false;
+        try {
+            Chan.create(0).setSpinLimit(-1);
+        } catch (IllegalArgumentException e) {
+            hasException = true;
+        }
+        assertTrue(hasException);
+    }
+
+    @Test
+    public void waitStrategy_pingPong() {
+        WaitStrategy[] strategies = new WaitStrategy[] {
+                WaitStrategy.adaptive(), WaitStrategy.busySpin(), WaitStrategy.yielding(),
+                WaitStrategy.timedPark(1, TimeUnit.MILLISECONDS), WaitStrategy.blocking() };
+        for (WaitStrategy strategy : strategies) {
+            final Chan<Integer> ping = Chan.create(0, strategy);
+            final Chan<Integer> pong = Chan.create(0, strategy);
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Integer i : ping) {
+                        pong.send(i + 1);
+                    }
+                }
+            }).start();
+
+            for (int i = 0; i < 100; i++) {
+                ping.send(i);
+                assertEquals(i + 1, (int) pong.receive());
+            }
+            ping.close();
+        }
+    }
+
+    /**
+     * A context claimed by a peer which hasn't woken it up yet.
+     */
+    static private class ClaimedContext extends ThreadContext {
+        volatile boolean mWake = false;
+
+        ClaimedContext() {
+            super(Thread.currentThread());
+        }
+
+        @Override
+        void wakeup(BaseChan chan) {
+            if (mWake) {
+                super.wakeup(chan);
+            }
+        }
+    }
+
+    @Test
+    public void waitStrategy_interruptAfterClaim_expectInterruptKept() {
+        WaitStrategy[] strategies = new WaitStrategy[] {
+                WaitStrategy.adaptive(), WaitStrategy.busySpin(), WaitStrategy.yielding(),
+                WaitStrategy.timedPark(1, TimeUnit.MILLISECONDS), WaitStrategy.blocking() };
+        for (WaitStrategy strategy : strategies) {
+            final ClaimedContext context = new ClaimedContext();
+            context.prepareToWait(strategy);
+            assertTrue(context.markUnblockedToRetry(null));
+            Thread.currentThread().interrupt();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TestUtil.sleep(20);
+                    context.mWake = true;
+                    context.wakeup(null);
+                }
+            }).start();
+            // the peer's claim wins over the interrupt, which is still pending afterwards
+            assertTrue(context.await());
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void whileBusySpinningOnReceive_interrupt_expectReturnNull() {
+        final Chan<Integer> ch = Chan.create(0, WaitStrategy.busySpin());
+        final Chan<Integer> done = Chan.create(0);
+
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Integer num = ch.receive();
+                assertEquals(null, num);
+                done.send(0);
+            }
+        });
+        th.start();
+
+        TestUtil.sleep(100);
+        th.interrupt();
+
+        done.receive();
+    }
+
+    @Test
+    public void spsc_pingPong() {
+        for (int depth : new int[] { 1, 2, 10, 100 }) {
+            final Chan<Integer> ch = Chan.createSpsc(depth);
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        ch.send(i);
+                    }
+                    ch.close(-1);
+                }
+            }).start();
+
+            for (int i = 0; i < 100000; i++) {
+                int r = ch.receive();
+                assertEquals(i, r);
+            }
+            assertEquals((Integer) (-1), ch.receive());
+            assertEquals(false, ch.receiveWithResult().ok);
+        }
+    }
+
+    @Test
+    public void spsc_blockOnEmptyAndFull() {
+        final Chan<Integer> ch = Chan.createSpsc(2);
+        final Chan<Integer> done = Chan.create(0);
+
+        TestUtil.asyncSendIntLater(done, ch, 300, 0, 1, 2);
+        Timer.assertBlockedForAround(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals((Integer) 0, ch.receive());
+            }
+        }, 300, 100);
+        done.receive();
+        assertEquals(2, ch.length());
+
+        TestUtil.asyncReceiveIntLaterAndExpect(done, ch, 300, 1, 2, 3);
+        Timer.assertBlockedForAround(new Runnable() {
+            @Override
+            public void run() {
+                ch.send(3);
+            }
+        }, 300, 100);
+        done.receive();
+    }
+
+    @Test
+    public void lockFree_manyToMany() {
+        for (int depth : new int[] { 1, 3, 16, 100 }) {
+            final Chan<Integer> ch = Chan.createLockFree(depth);
+            final Chan<Integer> done = Chan.create(4);
+            final Chan<Long> sums = Chan.create(4);
+            final int num = 20000;
+
+            for (int t = 0; t < 4; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 1; i <= num; i++) {
+                            ch.send(i);
+                        }
+                        done.send(0);
+                    }
+                }).start();
+            }
+            for (int t = 0; t < 4; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long sum = 0;
+                        for (Integer i : ch) {
+                            sum += i;
+                        }
+                        sums.send(sum);
+                    }
+                }).start();
+            }
+
+            for (int t = 0; t < 4; t++) {
+                done.receive();
+            }
+            ch.close();
+
+            long total = 0;
+            for (int t = 0; t < 4; t++) {
+                total += sums.receive();
+            }
+            assertEquals(4L * num * (num + 1) / 2, total);
+        }
+    }
+
+    @Test
+    public void lockFree_closeWithObject() {
+        final Chan<Integer> ch = Chan.createLockFree(3);
+
+        ch.send(1);
+        ch.send(2);
+        ch.close(99);
+        TestUtil.expectException(new Runnable() {
+            @Override
+            public void run() {
+                ch.send(3);
+            }
+        });
+        assertEquals((Integer) 1, ch.receive());
+        assertEquals((Integer) 2, ch.receive());
+        assertEquals((Integer) 99, ch.receive());
+        Chan.Result<Integer> result = ch.receiveWithResult();
+        assertEquals(false, result.ok);
+    }
+
+    @Test
+    public void lockFree_sendRacingClose_expectEverySentDataReceived() throws InterruptedException {
+        Random rand = new Random(0);
+        for (int round = 0; round < 3000; round++) {
+            final boolean spsc = round % 2 == 1;
+            final Chan<Integer> ch = spsc ? Chan.<Integer>createSpsc(4) : Chan.<Integer>createLockFree(4);
+            final AtomicInteger sent = new AtomicInteger();
+            final AtomicInteger received = new AtomicInteger();
+            ArrayList<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < (spsc ? 1 : 3); i++) {
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (true) {
+                                ch.send(1);
+                                sent.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            // send on closed channel
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < (spsc ? 1 : 2); i++) {
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Integer data : ch) {
+                            received.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            TestUtil.sleep(rand.nextInt(3));
+            ch.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // a send which returned normally was received before the receivers saw the channel closed
+            assertEquals(sent.get(), received.get());
+            assertEquals(0, ch.length());
+        }
+    }
+
+    @Test
+    public void lengthAndIsClosed_whileLocked_expectNoBlock() {
+        final Chan<Integer> ch = Chan.create(3);
+        ch.send(1);
+        ch.send(2);
+        Chan<Void> release = TestUtil.holdLock(ch);
+        assertEquals(2, ch.length());
+        assertEquals(false, ch.isClosed());
+        release.close();
+
+        ch.close();
+        assertEquals(true, ch.isClosed());
+        // closed with buffered data
+        assertEquals(2, ch.length());
+        assertEquals((Integer) 1, ch.receive());
+        assertEquals(1, ch.length());
+
+        Chan<Integer> ring = Chan.createLockFree(3);
+        ring.send(1);
+        assertEquals(1, ring.length());
+        ring.close();
+        assertEquals(true, ring.isClosed());
+    }
+
+    @Test
+    public void receiveWithTimeout() {
+        for (int type = 0; type < 3; type++) {
+            // unbuffered, buffered and lock-free
+            Chan<Integer> ch = type == 0 ? Chan.<Integer>create(0)
+                    : type == 1 ? Chan.<Integer>create(2) : Chan.<Integer>createLockFree(2);
+            long start = System.nanoTime();
+            assertEquals(null, ch.receive(30, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+            assertEquals(0, ch.mReceivers.size());
+
+            TestUtil.asyncSleepAndSendIntegers(20, ch, 5);
+            Chan.Result<Integer> result = ch.receive(10, TimeUnit.SECONDS);
+            assertEquals((Integer) 5, result.data);
+            assertTrue(result.ok);
+
+            ch.close(-1);
+            result = ch.receive(10, TimeUnit.SECONDS);
+            assertEquals((Integer) (-1), result.data);
+            assertEquals(false, result.ok);
+        }
+    }
+
+    @Test
+    public void sendWithTimeout() {
+        for (int type = 0; type < 3; type++) {
+            Chan<Integer> ch = type == 0 ? Chan.<Integer>create(0)
+                    : type == 1 ? Chan.<Integer>create(1) : Chan.<Integer>createLockFree(1);
+            if (type > 0) {
+                ch.send(0);
+            }
+            long start = System.nanoTime();
+            assertEquals(false, ch.send(1, 30, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+            assertEquals(0, ch.mSenders.size());
+            if (type > 0) {
+                assertEquals((Integer) 0, ch.receive());
+            }
+            // the data which timed out is not received
+            assertEquals(null, ch.receive(20, TimeUnit.MILLISECONDS));
+
+            Chan<Integer> done = Chan.create(0);
+            TestUtil.asyncReceiveIntLaterAndExpect(done, ch, 20, 2);
+            assertTrue(ch.send(2, 10, TimeUnit.SECONDS));
+            done.receive();
+        }
+    }
+
+    @Test
+    public void receiveWithTimeout_otherReceiverStillWaiting() {
+        final Chan<Integer> ch = Chan.create(0);
+        Chan<Integer> done = Chan.create(0);
+        TestUtil.asyncReceiveIntAndExpect(done, ch, 1);
+        TestUtil.sleep(20);
+        assertEquals(null, ch.receive(20, TimeUnit.MILLISECONDS));
+        assertEquals(1, ch.mReceivers.size());
+        ch.send(1);
+        done.receive();
+    }
+
+    @Test
+    public void receiveAsyncAndSendAsync() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int type = 0; type < 3; type++) {
+                // unbuffered, buffered and lock-free
+                Chan<Integer> ch = type == 0 ? Chan.<Integer>create(0)
+                        : type == 1 ? Chan.<Integer>create(1) : Chan.<Integer>createLockFree(1);
+                final Chan<Integer> received = Chan.create(10);
+                Chan.ReceiveCallback<Integer> receiver = new Chan.ReceiveCallback<Integer>() {
+                    @Override
+                    public void onReceive(Integer data, boolean ok) {
+                        received.send(ok ? data : -data);
+                    }
+                };
+                final Chan<Boolean> sent = Chan.create(10);
+                Chan.SendCallback sender = new Chan.SendCallback() {
+                    @Override
+                    public void onSent(boolean ok) {
+                        sent.send(ok);
+                    }
+                };
+
+                // the receiver waits without a thread, and the sender hands the data to it
+                ch.receiveAsync(receiver, executor);
+                ch.send(1);
+                assertEquals((Integer) 1, received.receive());
+
+                ch.sendAsync(2, sender, executor);
+                if (type > 0) {
+                    assertEquals(true, sent.receive());
+                }
+                ch.sendAsync(3, sender, executor);
+                assertEquals((Integer) 2, ch.receive());
+                assertEquals((Integer) 3, ch.receive());
+                assertEquals(true, sent.receive());
+                if (type == 0) {
+                    assertEquals(true, sent.receive());
+                }
+
+                // a pending send fails when closed
+                if (type > 0) {
+                    ch.send(4);
+                }
+                ch.sendAsync(5, sender, executor);
+                TestUtil.sleep(20);
+                ch.close(-6);
+                assertEquals(false, sent.receive());
+                if (type > 0) {
+                    assertEquals((Integer) 4, ch.receive());
+                }
+                ch.receiveAsync(receiver, executor);
+                assertEquals((Integer) 6, received.receive());
+                ch.sendAsync(7, sender, executor);
+                assertEquals(false, sent.receive());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void receiveAsync_executorRejects_expectSendSucceedsAndDataDelivered() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> received = Chan.create(1);
+        ch.receiveAsync(new Chan.ReceiveCallback<Integer>() {
+            @Override
+            public void onReceive(Integer data, boolean ok) {
+                received.send(data);
+            }
+        }, executor);
+        executor.shutdown();
+        // the rejection doesn't escape into the send, and the data is not lost
+        ch.send(1);
+        assertEquals((Integer) 1, received.receive());
+    }
+
+    @Test
+    public void receiveAsync_directExecutor_expectCallbackWithoutPeerLock() {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> other = Chan.create(0);
+        final Chan<Boolean> lockHeld = Chan.create(10);
+        Chan.ReceiveCallback<Integer> callback = new Chan.ReceiveCallback<Integer>() {
+            @Override
+            public void onReceive(Integer data, boolean ok) {
+                lockHeld.send(ch.mLock.isHeldByCurrentThread() || other.mLock.isHeldByCurrentThread());
+            }
+        };
+
+        // woken up by a send
+        ch.receiveAsync(callback, direct);
+        ch.send(1);
+        assertEquals(false, lockHeld.receive());
+
+        // woken up by a select holding the locks of all of its channels
+        ch.receiveAsync(callback, direct);
+        assertEquals(0, new Select().send(ch, 2).send(other, 3).select());
+        assertEquals(false, lockHeld.receive());
+
+        // the callback runs on the thread of the select after it has finished with its context
+        final Chan<Integer> inner = Chan.create(2);
+        final Chan<Object> innerResults = Chan.create(3);
+        inner.send(7);
+        inner.send(8);
+        ch.receiveAsync(new Chan.ReceiveCallback<Integer>() {
+            @Override
+            public void onReceive(Integer data, boolean ok) {
+                Select select = new Select();
+                select.receive(inner);
+                innerResults.send(select.select());
+                innerResults.send(select.getData());
+                innerResults.send(inner.receive());
+            }
+        }, direct);
+        assertEquals(0, new Select().send(ch, 4).send(other, 5).select());
+        assertEquals(0, innerResults.receive());
+        assertEquals(7, innerResults.receive());
+        assertEquals(8, innerResults.receive());
+
+        // woken up by close()
+        ch.receiveAsync(callback, direct);
+        ch.close();
+        assertEquals(false, lockHeld.receive());
+    }
+
+    @Test
+    public void receiveAsync_manyWaiters() {
+        final int num = 10000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Chan<Integer> ch = Chan.create(0);
+            final Chan<Integer> received = Chan.create(num);
+            for (int i = 0; i < num; i++) {
+                ch.receiveAsync(new Chan.ReceiveCallback<Integer>() {
+                    @Override
+                    public void onReceive(Integer data, boolean ok) {
+                        received.send(data);
+                    }
+                }, executor);
+            }
+            assertEquals(num, ch.mReceivers.size());
+            long sum = 0;
+            for (int i = 0; i < num; i++) {
+                ch.send(i);
+            }
+            for (int i = 0; i < num; i++) {
+                sum += received.receive();
+            }
+            assertEquals((long) num * (num - 1) / 2, sum);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private void startGenerate(final Chan<Integer> ch) {
         new Thread(new Runnable() {
             @Override
@@ -0,0 +1,139 @@
+package io.github.anolivetree.goncurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContextTest {
+
+    @Test
+    public void cancel_expectSubtreeCancelled() {
+        Context root = Context.withCancel(Context.background());
+        Context child1 = Context.withCancel(root);
+        Context child2 = Context.withCancel(root);
+        Context grandChild = Context.withCancel(child1);
+        Chan<Void> done = grandChild.done();
+
+        child2.cancel();
+        assertTrue(child2.isDone());
+        assertFalse(root.isDone());
+        assertFalse(child1.isDone());
+
+        root.cancel();
+        for (Context ctx : new Context[] { root, child1, child2, grandChild }) {
+            assertTrue(ctx.isDone());
+            assertEquals(Context.CANCELED, ctx.err());
+            assertFalse(ctx.done().receiveWithResult().ok);
+        }
+        assertFalse(done.receiveWithResult().ok);
+        assertFalse(Context.background().isDone());
+
+        // a child of a cancelled context is born cancelled
+        Context late = Context.withTimeout(child1, 1, TimeUnit.HOURS);
+        assertEquals(Context.CANCELED, late.err());
+        assertFalse(late.done().receiveWithResult().ok);
+    }
+
+    @Test
+    public void done_inSelect_expectWakeUpOnCancel() {
+        final Context ctx = Context.withCancel(Context.background());
+        Chan<Integer> ch = Chan.create(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TestUtil.sleep(20);
+                ctx.cancel();
+            }
+        }).start();
+        assertEquals(1, new Select().receive(ch).receive(ctx.done()).select());
+    }
+
+    @Test
+    public void withTimeout_expectDeadlineExceeded() {
+        long start = System.nanoTime();
+        Context ctx = Context.withTimeout(Context.background(), 30, TimeUnit.MILLISECONDS);
+        Context child = Context.withTimeout(ctx, 1, TimeUnit.HOURS);
+        assertTrue(child.hasDeadline());
+        assertEquals(ctx.deadlineNanos(), child.deadlineNanos());
+
+        child.done().receive();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertEquals(Context.DEADLINE_EXCEEDED, ctx.err());
+        assertEquals(Context.DEADLINE_EXCEEDED, child.err());
+
+        Context past = Context.withDeadline(Context.background(), System.nanoTime() - 1);
+        assertEquals(Context.DEADLINE_EXCEEDED, past.err());
+
+        Context cancelled = Context.withTimeout(Context.background(), 10, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+        TestUtil.sleep(30);
+        assertEquals(Context.CANCELED, cancelled.err());
+    }
+
+    @Test
+    public void background_cancel_expectException() {
+        TestUtil.expectException(new Runnable() {
+            @Override
+            public void run() {
+                Context.background().cancel();
+            }
+        });
+    }
+
+    @Test
+    public void concurrentChildren_expectAllCancelled() {
+        final Context root = Context.withCancel(Context.background());
+        final int numThreads = 4;
+        final int num = 10000;
+        final Chan<ArrayList<Context>> created = Chan.create(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ArrayList<Context> children = new ArrayList<Context>();
+                    for (int i = 0; i < num; i++) {
+                        Context child = Context.withCancel(root);
+                        if (i % 2 == 0) {
+                            child.cancel();
+                        } else {
+                            children.add(Context.withCancel(child));
+                        }
+                    }
+                    created.send(children);
+                }
+            }).start();
+        }
+        TestUtil.sleep(10);
+        root.cancel();
+        for (int t = 0; t < numThreads; t++) {
+            for (Context ctx : created.receive()) {
+                assertTrue(ctx.isDone());
+            }
+        }
+    }
+
+    @Test
+    public void cancel_deepChain_expectNoStackOverflow() {
+        Context root = Context.withCancel(Context.background());
+        Context[] chain = new Context[100000];
+        Context[] siblings = new Context[chain.length];
+        Context parent = root;
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = Context.withCancel(parent);
+            siblings[i] = Context.withCancel(parent);
+            parent = chain[i];
+        }
+        Chan<Void> leafDone = chain[chain.length - 1].done();
+        root.cancel();
+        for (int i = 0; i < chain.length; i++) {
+            assertTrue(chain[i].isDone());
+            assertTrue(siblings[i].isDone());
+        }
+        assertTrue(leafDone.isClosed());
+    }
+}
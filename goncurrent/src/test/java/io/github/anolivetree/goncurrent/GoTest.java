@@ -0,0 +1,47 @@
+package io.github.anolivetree.goncurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GoTest {
+
+    @Test
+    public void go_manyTasksBlockedOnChannels() {
+        final int num = 10000;
+        final Chan<Integer> in = Chan.create(0);
+        final Chan<Integer> out = Chan.create(0);
+        for (int i = 0; i < num; i++) {
+            Go.go(new Runnable() {
+                @Override
+                public void run() {
+                    out.send(in.receive() + 1);
+                }
+            });
+        }
+        // all the tasks are blocked on 'in' by now, or will be
+        Go.go(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < num; i++) {
+                    in.send(i);
+                }
+            }
+        });
+        long sum = 0;
+        for (int i = 0; i < num; i++) {
+            sum += out.receive();
+        }
+        assertEquals((long) num * (num + 1) / 2, sum);
+    }
+
+    @Test
+    public void go_nullTask_expectException() {
+        TestUtil.expectException(new Runnable() {
+            @Override
+            public void run() {
+                Go.go(null);
+            }
+        });
+    }
+}
@@ -0,0 +1,202 @@
+package io.github.anolivetree.goncurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveChanTest {
+
+    @Test
+    public void intChan_basic_sendAndReceiveNonBlocking() {
+        IntChan ch = IntChan.create(3);
+        ch.send(1);
+        ch.send(-2);
+        ch.send(Integer.MAX_VALUE);
+        assertEquals(3, ch.length());
+        assertEquals(3, ch.capacity());
+
+        assertEquals(1, ch.receive());
+        assertEquals(-2, ch.receive());
+        assertEquals(Integer.MAX_VALUE, ch.receive());
+    }
+
+    @Test
+    public void longChan_unbuffered_pingPong() {
+        final LongChan ping = LongChan.create(0);
+        final LongChan pong = LongChan.create(0);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LongChan.LongIterator it = ping.longIterator();
+                while (it.hasNext()) {
+                    pong.send(it.nextLong() + 1);
+                }
+            }
+        }).start();
+
+        for (long i = Long.MAX_VALUE - 10000; i < Long.MAX_VALUE; i++) {
+            ping.send(i);
+            assertEquals(i + 1, pong.receive());
+        }
+        ping.close();
+    }
+
+    @Test
+    public void doubleChan_afterClosedWithValue_expectValue() {
+        DoubleChan ch = DoubleChan.create(2);
+        ch.send(0.5);
+        ch.send(-0.0);
+        ch.close(Double.NaN);
+
+        DoubleChan.MutableResult result = new DoubleChan.MutableResult();
+        assertTrue(ch.receiveWithResult(result));
+        assertEquals(0.5, result.data, 0);
+        assertTrue(ch.receiveWithResult(result));
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(result.data));
+        assertTrue(!ch.receiveWithResult(result));
+        assertTrue(Double.isNaN(result.data));
+        assertTrue(Double.isNaN(ch.receive()));
+
+        boolean hasException = false;
+        try {
+            ch.send(1.0);
+        } catch (Exception e) {
+            hasException = true;
+        }
+        assertTrue(hasException);
+    }
+
+    @Test
+    public void intChan_iterator_manySenders() {
+        final IntChan ch = IntChan.create(10);
+        final IntChan done = IntChan.create(0);
+        final int numThreads = 4;
+        final int num = 10000;
+
+        for (int t = 0; t < numThreads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < num; i++) {
+                        ch.send(i);
+                    }
+                    done.send(0);
+                }
+            }).start();
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int t = 0; t < numThreads; t++) {
+                    done.receive();
+                }
+                ch.close();
+            }
+        }).start();
+
+        long sum = 0;
+        int count = 0;
+        for (Integer i : ch) {
+            sum += i;
+            count++;
+        }
+        assertEquals(numThreads * num, count);
+        assertEquals((long) numThreads * num * (num - 1) / 2, sum);
+    }
+
+    @Test
+    public void whileWaitingOnReceive_interrupt_expectReturnZero() {
+        final IntChan ch = IntChan.create(0);
+        final IntChan done = IntChan.create(0);
+
+        Thread th = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IntChan.MutableResult result = new IntChan.MutableResult();
+                assertTrue(!ch.receiveWithResult(result));
+                assertEquals(0, result.data);
+                done.send(0);
+            }
+        });
+        th.start();
+
+        TestUtil.sleep(100);
+        th.interrupt();
+
+        done.receive();
+    }
+
+    @Test
+    public void select_mixedWithChan() {
+        final IntChan ints = IntChan.create(0);
+        final DoubleChan doubles = DoubleChan.create(0);
+        final Chan<String> strings = Chan.create(0);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    ints.send(i);
+                    doubles.send(i + 0.5);
+                    strings.send("s" + i);
+                }
+                ints.close(-1);
+            }
+        }).start();
+
+        Select select = new Select();
+        int numInt = 0;
+        int numDouble = 0;
+        int numString = 0;
+        while (true) {
+            select.receiveInt(ints);
+            select.receiveDouble(doubles);
+            select.receive(strings);
+            int index = select.select();
+            if (index == 0) {
+                if (select.getInt() == -1) {
+                    break;
+                }
+                assertEquals(numInt, select.getInt());
+                numInt++;
+            } else if (index == 1) {
+                assertEquals(numDouble + 0.5, select.getDouble(), 0);
+                numDouble++;
+            } else {
+                assertEquals("s" + numString, select.getData());
+                numString++;
+            }
+        }
+        assertEquals(100, numInt);
+        assertEquals(100, numDouble);
+        assertEquals(100, numString);
+    }
+
+    @Test
+    public void select_sendToLongChan() {
+        final LongChan ch = LongChan.create(0);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Select select = new Select();
+                for (long i = 0; i < 100; i++) {
+                    select.sendLong(ch, i << 40);
+                    select.sendLong(null, 0);
+                    assertEquals(0, select.select());
+                }
+                ch.close();
+            }
+        }).start();
+
+        long expected = 0;
+        LongChan.MutableResult result = new LongChan.MutableResult();
+        while (ch.receiveWithResult(result)) {
+            assertEquals(expected << 40, result.data);
+            expected++;
+        }
+        assertEquals(100, expected);
+    }
+}
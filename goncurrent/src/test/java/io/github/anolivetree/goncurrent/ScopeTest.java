@@ -0,0 +1,179 @@
+package io.github.anolivetree.goncurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScopeTest {
+
+    @Test
+    public void scope_closePipeline_expectChannelsClosedAndJoined() {
+        final AtomicInteger finished = new AtomicInteger();
+        final Chan<Integer> out;
+        Scope scope = new Scope();
+        try {
+            final Chan<Integer> in = scope.newChan(0);
+            out = scope.newChan(0);
+            scope.go(new ErrGroup.Task() {
+                @Override
+                public void run(Context ctx) {
+                    for (Integer v : in) {
+                        out.send(v + 1);
+                    }
+                    finished.incrementAndGet();
+                }
+            });
+            scope.go(new ErrGroup.Task() {
+                @Override
+                public void run(Context ctx) {
+                    // blocks on ctx until close()
+                    ctx.done().receive();
+                    finished.incrementAndGet();
+                }
+            });
+            in.send(1);
+            assertEquals(2, (int) out.receive());
+        } finally {
+            scope.close();
+        }
+        assertEquals(2, finished.get());
+        assertTrue(out.isClosed());
+        assertTrue(scope.context().isDone());
+        assertNull(scope.err());
+    }
+
+    @Test
+    public void scope_failure_expectOthersUnblockedAndThrown() {
+        final Exception failure = new Exception("failure");
+        final AtomicInteger unblocked = new AtomicInteger();
+        Scope scope = new Scope();
+        final Chan<Integer> ch = scope.newChan(0);
+        for (int i = 0; i < 5; i++) {
+            scope.go(new ErrGroup.Task() {
+                @Override
+                public void run(Context ctx) {
+                    ch.receive();
+                    unblocked.incrementAndGet();
+                }
+            });
+        }
+        scope.go(new ErrGroup.Task() {
+            @Override
+            public void run(Context ctx) throws Exception {
+                TestUtil.sleep(10);
+                throw failure;
+            }
+        });
+        assertTrue(scope.await());
+        assertEquals(5, unblocked.get());
+        assertSame(failure, scope.err());
+        assertTrue(ch.isClosed());
+        try {
+            scope.close();
+            fail();
+        } catch (Scope.FailedException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void scope_failureAfterShutdown_expectIgnored() {
+        Scope scope = new Scope();
+        final Chan<Integer> ch = scope.newChan(0);
+        scope.go(new ErrGroup.Task() {
+            @Override
+            public void run(Context ctx) {
+                ctx.done().receive();
+                // send on closed channel
+                ch.send(1);
+            }
+        });
+        scope.close();
+        assertNull(scope.err());
+    }
+
+    @Test
+    public void scope_stuckGoroutine_expectInterrupted() {
+        final AtomicInteger interrupted = new AtomicInteger();
+        final Chan<Integer> notOwned = Chan.create(0);
+        Scope scope = new Scope(Context.background(), 50, TimeUnit.MILLISECONDS);
+        scope.go(new ErrGroup.Task() {
+            @Override
+            public void run(Context ctx) {
+                if (notOwned.receive(1, TimeUnit.MINUTES) == null) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        });
+        TestUtil.sleep(10);
+        long start = System.nanoTime();
+        scope.close();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(1, interrupted.get());
+        assertTrue(elapsed >= 40);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void scope_goroutineIgnoringInterrupt_expectException() {
+        final Chan<Void> release = Chan.create(0);
+        Scope scope = new Scope(Context.background(), 20, TimeUnit.MILLISECONDS);
+        scope.go(new ErrGroup.Task() {
+            @Override
+            public void run(Context ctx) {
+                while (release.receive(1, TimeUnit.MINUTES) == null) {
+                    // interrupted. keep waiting.
+                    Thread.interrupted();
+                }
+            }
+        });
+        try {
+            scope.close();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        release.close();
+    }
+
+    @Test
+    public void scope_afterShutdown_expectOwnClosesAndGoThrows() {
+        final Scope scope = new Scope();
+        scope.close();
+        Chan<Integer> ch = scope.newChan(1);
+        assertTrue(ch.isClosed());
+        TestUtil.expectException(new Runnable() {
+            @Override
+            public void run() {
+                scope.go(new ErrGroup.Task() {
+                    @Override
+                    public void run(Context ctx) {
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void scope_parentCancelled_expectContextDone() {
+        Context parent = Context.withCancel(Context.background());
+        Scope scope = new Scope(parent);
+        final Chan<Boolean> result = Chan.create(1);
+        scope.go(new ErrGroup.Task() {
+            @Override
+            public void run(Context ctx) {
+                result.send(ctx.done().receiveWithResult().ok);
+            }
+        });
+        parent.cancel();
+        assertFalse(result.receive());
+        scope.close();
+    }
+}
@@ -2,6 +2,8 @@ package io.github.anolivetree.goncurrent;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -33,6 +35,22 @@ public class SelectBenchmark {
                 timer.dump("chan");
             }
 
+            if (depth > 0) {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_select(Chan.<Integer>createLockFree(depth), Chan.<Integer>createLockFree(depth), count);
+                timer.stop();
+                timer.dump("select(lf)");
+            }
+
+            if (depth > 0) {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_chan(Chan.<Integer>createLockFree(depth), Chan.<Integer>createLockFree(depth), count);
+                timer.stop();
+                timer.dump("chan(lf)");
+            }
+
             if (depth > 0) {
                 Timer timer = new Timer();
                 timer.start();
@@ -51,11 +69,319 @@ public class SelectBenchmark {
         }
     }
 
-    // th1 --ch1--> th2 --ch2--> th3
-    private void benchmark_select(final int count, int depth) {
+
+    /**
+     * One thread sends to random channels out of numCases and the main thread selects over all of them.
+     * SelectCases locks and checks every case on each select, TrackedSelectCases only the signaled ones.
+     */
+    @Test
+    public void benchmark_numCases() {
+        final int count = 20000;
+        final int[] numCasesTable = new int[] { 2, 10, 100, 1000, 10000 };
+
+        for (int numCases : numCasesTable) {
+            System.out.printf("--cases %d--\n", numCases);
+            for (int tracked = 0; tracked < 2; tracked++) {
+                Timer timer = new Timer();
+                timer.start();
+                benchmark_numCases(tracked == 1 ? new TrackedSelectCases() : new SelectCases(), numCases, count);
+                timer.stop();
+                timer.dump(tracked == 1 ? "tracked" : "cases");
+            }
+            Timer timer = new Timer();
+            timer.start();
+            benchmark_numCasesLoop(numCases, count);
+            timer.stop();
+            timer.dump("loop");
+        }
+    }
+
+    private void benchmark_numCases(SelectCases cases, int numCases, final int count) {
+        final ArrayList<Chan<Integer>> chans = new ArrayList<Chan<Integer>>();
+        for (int i = 0; i < numCases; i++) {
+            Chan<Integer> ch = Chan.create(16);
+            chans.add(ch);
+            cases.addReceive(ch);
+        }
+        sendToRandomChan(chans, count);
+
+        for (int i = 0; i < count; i++) {
+            cases.select();
+        }
+        cases.clear();
+    }
+
+    private void benchmark_numCasesLoop(int numCases, final int count) {
+        final ArrayList<Chan<Integer>> chans = new ArrayList<Chan<Integer>>();
+        final SelectLoop loop = new SelectLoop();
+        final int[] received = new int[1];
+        HandlerSelect.ReceiveHandler<Integer> handler = new HandlerSelect.ReceiveHandler<Integer>() {
+            @Override
+            public void onReceive(Integer data) {
+                if (++received[0] == count) {
+                    loop.stop();
+                }
+            }
+        };
+        for (int i = 0; i < numCases; i++) {
+            Chan<Integer> ch = Chan.create(16);
+            chans.add(ch);
+            loop.onReceive(ch, handler);
+        }
+        sendToRandomChan(chans, count);
+
+        loop.run();
+        loop.close();
+    }
+
+    private static void sendToRandomChan(final ArrayList<Chan<Integer>> chans, final int count) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random rand = new Random(0);
+                Integer data = 1;
+                for (int i = 0; i < count; i++) {
+                    chans.get(rand.nextInt(chans.size())).send(data);
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * th1 --ch1--> th2 --ch2--> th3 where th2 relays with SelectCases and an index switch, or with HandlerSelect.
+     */
+    @Test
+    public void benchmark_handler() {
+        final int count = 1000000;
+        final int[] depthTable = new int[] { 0, 100 };
+        final String[] names = new String[] { "index", "handler" };
+
+        for (int depth : depthTable) {
+            System.out.printf("--depth %d--\n", depth);
+            for (int i = 0; i < names.length; i++) {
+                // warm up, then measure
+                benchmark_handler(depth, count / 10, i == 1, null);
+                Timer timer = new Timer();
+                AllocationCounter counter = new AllocationCounter();
+                timer.start();
+                benchmark_handler(depth, count, i == 1, counter);
+                timer.stop();
+                timer.dump(names[i]);
+                counter.dump(names[i], count);
+            }
+        }
+    }
+
+    /**
+     * @param counter counts the allocation of th2 if not null
+     */
+    private void benchmark_handler(int depth, final int count, final boolean handler, final AllocationCounter counter) {
         final Chan<Integer> ch1 = Chan.create(depth);
         final Chan<Integer> ch2 = Chan.create(depth);
 
+        // th1
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Integer data = 1;
+                for (int i = 0; i < count; i++) {
+                    ch1.send(data);
+                }
+                ch1.close();
+            }
+        }).start();
+
+        // th2
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (counter != null) {
+                    counter.start();
+                }
+                if (handler) {
+                    relayWithHandler(ch1, ch2);
+                } else {
+                    relayWithIndex(ch1, ch2);
+                }
+                if (counter != null) {
+                    counter.stop();
+                }
+                ch2.close();
+            }
+        }).start();
+
+        for (Integer received : ch2) {
+        }
+    }
+
+    private static void relayWithIndex(Chan<Integer> ch1, Chan<Integer> ch2) {
+        SelectCases cases = new SelectCases();
+        int recv = cases.addReceive(ch1);
+        int send = cases.addSend(ch2, null);
+        cases.setEnabled(send, false);
+        while (true) {
+            int index = cases.select();
+            if (index == recv) {
+                Object received = cases.getData();
+                if (received == null) {
+                    return;
+                }
+                cases.setSendData(send, received);
+                cases.setEnabled(recv, false);
+                cases.setEnabled(send, true);
+            } else if (index == send) {
+                cases.setEnabled(send, false);
+                cases.setEnabled(recv, true);
+            }
+        }
+    }
+
+    private static void relayWithHandler(Chan<Integer> ch1, Chan<Integer> ch2) {
+        final HandlerSelect select = new HandlerSelect();
+        final Integer[] val = new Integer[1];
+        final boolean[] closed = new boolean[1];
+        final int recv = select.onReceive(ch1, new HandlerSelect.ReceiveHandler<Integer>() {
+            @Override
+            public void onReceive(Integer data) {
+                val[0] = data;
+                closed[0] = data == null;
+            }
+        });
+        final int send = select.onSend(ch2, new HandlerSelect.SendHandler<Integer>() {
+            @Override
+            public Integer dataToSend() {
+                return val[0];
+            }
+
+            @Override
+            public void onSent(Integer data) {
+                val[0] = null;
+            }
+        });
+        while (!closed[0]) {
+            boolean hasData = val[0] != null;
+            select.setEnabled(recv, !hasData);
+            select.setEnabled(send, hasData);
+            select.select();
+        }
+    }
+
+    /**
+     * Selects over always ready buffered channels, in random order and in priority order.
+     */
+    @Test
+    public void benchmark_priority() {
+        final int numChan = 8;
+        final int count = 200000;
+        final String[] names = new String[] { "random", "priority" };
+
+        for (int i = 0; i < names.length; i++) {
+            for (int round = 0; round < 2; round++) {
+                // the first round is a warm-up
+                SelectCases cases = new SelectCases();
+                cases.setPriority(i == 1, 0);
+                for (int c = 0; c < numChan; c++) {
+                    Chan<Integer> ch = Chan.create(count);
+                    Integer data = c;
+                    for (int n = 0; n < count; n++) {
+                        ch.send(data);
+                    }
+                    cases.addReceive(ch);
+                }
+                Timer timer = new Timer();
+                timer.start();
+                for (int n = 0; n < count; n++) {
+                    cases.select();
+                }
+                timer.stop();
+                if (round == 1) {
+                    timer.dump(names[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * selectNonblock() over four empty channels, which finds nothing without locking the channels.
+     */
+    @Test
+    public void benchmark_selectNonblockEmpty() {
+        final int count = 10000000;
+        SelectCases cases = new SelectCases();
+        for (int i = 0; i < 4; i++) {
+            cases.addReceive(Chan.<Integer>create(16));
+        }
+        for (int round = 0; round < 2; round++) {
+            // the first round is a warm-up
+            Timer timer = new Timer();
+            timer.start();
+            for (int n = 0; n < count; n++) {
+                cases.selectNonblock();
+            }
+            timer.stop();
+            if (round == 1) {
+                timer.dump("empty");
+            }
+        }
+    }
+
+    /**
+     * A producer sends to one of two buffered channels, and the consumer selects one by one or in batches.
+     */
+    @Test
+    public void benchmark_selectBatch() {
+        final int count = 1000000;
+        final int[] batchTable = new int[] { 1, 16, 64 };
+        for (int depth : new int[] { 64, 1024 }) {
+            System.out.printf("--depth %d--\n", depth);
+            for (int batch : batchTable) {
+                for (int lockFree = 0; lockFree < 2; lockFree++) {
+                    Timer timer = new Timer();
+                    timer.start();
+                    benchmark_selectBatch(depth, count, batch, lockFree == 1);
+                    timer.stop();
+                    timer.dump((lockFree == 1 ? "lf(" : "ch(") + batch + ")");
+                }
+            }
+        }
+    }
+
+    private void benchmark_selectBatch(int depth, final int count, int batch, boolean lockFree) {
+        final Chan<Integer> ch1 = lockFree ? Chan.<Integer>createLockFree(depth) : Chan.<Integer>create(depth);
+        final Chan<Integer> ch2 = lockFree ? Chan.<Integer>createLockFree(depth) : Chan.<Integer>create(depth);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Integer data = 1;
+                for (int i = 0; i < count; i++) {
+                    ((i & 1) == 0 ? ch1 : ch2).send(data);
+                }
+            }
+        }).start();
+
+        SelectCases cases = new SelectCases();
+        cases.addReceive(ch1);
+        cases.addReceive(ch2);
+        Object[] dst = new Object[batch];
+        int received = 0;
+        while (received < count) {
+            if (batch == 1) {
+                cases.select();
+                received++;
+            } else {
+                cases.selectBatch(dst, batch);
+                received += cases.getCount();
+            }
+        }
+    }
+
+    // th1 --ch1--> th2 --ch2--> th3
+    private void benchmark_select(final int count, int depth) {
+        benchmark_select(Chan.<Integer>create(depth), Chan.<Integer>create(depth), count);
+    }
+
+    private void benchmark_select(final Chan<Integer> ch1, final Chan<Integer> ch2, final int count) {
+
         // th1
         new Thread(new Runnable() {
             @Override
@@ -100,8 +426,10 @@ public class SelectBenchmark {
     }
 
     private void benchmark_chan(final int count, int depth) {
-        final Chan<Integer> ch1 = Chan.create(depth);
-        final Chan<Integer> ch2 = Chan.create(depth);
+        benchmark_chan(Chan.<Integer>create(depth), Chan.<Integer>create(depth), count);
+    }
+
+    private void benchmark_chan(final Chan<Integer> ch1, final Chan<Integer> ch2, final int count) {
 
         // th1
         new Thread(new Runnable() {
@@ -2,10 +2,18 @@ package io.github.anolivetree.goncurrent;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SelectTest {
 
@@ -61,6 +69,114 @@ public class SelectTest {
         assertEquals(true, (index == 0 && data == 100) || (index == 1 && data == 200));
     }
 
+    @Test
+    public void selectReceive_spsc() {
+        final Chan<Integer> chan1 = Chan.createSpsc(1);
+        final Chan<Integer> chan2 = Chan.create(0);
+
+        TestUtil.asyncSleepAndSendIntegersAndClose(100, chan1, null, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+        Select select = new Select();
+        int expected = 0;
+        while (true) {
+            select.receive(chan1);
+            select.receive(chan2);
+            int index = select.select();
+            assertEquals(0, index);
+            if (select.getData() == null) {
+                break;
+            }
+            assertEquals((Integer) expected, select.getData());
+            expected++;
+        }
+        assertEquals(10, expected);
+    }
+
+    @Test
+    public void selectSendReceive_lockFree() {
+        final Chan<Integer> ch1 = Chan.createLockFree(2);
+        final Chan<Integer> ch2 = Chan.createLockFree(2);
+
+        // ch1 -> th -> ch2
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Select select = new Select();
+                Integer val = null;
+                while (true) {
+                    select.receive(val == null ? ch1 : null);
+                    select.send(val != null ? ch2 : null, val);
+                    int index = select.select();
+                    if (index == 0) {
+                        val = (Integer) select.getData();
+                        if (val == null) {
+                            ch2.close();
+                            return;
+                        }
+                    } else {
+                        val = null;
+                    }
+                }
+            }
+        }).start();
+
+        TestUtil.asyncSendIntegersAndClose(ch1, null, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+        int expected = 0;
+        for (Integer i : ch2) {
+            assertEquals((Integer) expected, i);
+            expected++;
+        }
+        assertEquals(10, expected);
+    }
+
+    @Test
+    public void lockFree_selectWokenTakesOtherCase_expectReceiverWokenUp() {
+        int numRaced = 0;
+        for (int i = 0; i < 20; i++) {
+            final Chan<Integer> x = Chan.createLockFree(1, WaitStrategy.blocking());
+            final Chan<Integer> y = Chan.createLockFree(1, WaitStrategy.blocking());
+            final Chan<Integer> selected = Chan.create(1);
+            final Chan<Integer> received = Chan.create(1);
+
+            // waits on x before the receiver, so that the send to x wakes up the select
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SelectCases cases = new SelectCases();
+                    cases.setPriority(true, 0);
+                    cases.addReceive(y);
+                    cases.addReceive(x);
+                    selected.send(cases.select());
+                }
+            }).start();
+            TestUtil.sleep(50);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    received.send(x.receive());
+                }
+            }).start();
+            TestUtil.sleep(50);
+
+            x.send(1);
+            y.send(2);
+            if (selected.receive() == 1) {
+                // the select took x before y was sent
+                x.send(3);
+                assertEquals(3, (int) received.receive());
+                continue;
+            }
+            numRaced++;
+            // the select took y. the receiver must be woken up for x.
+            Chan.Result<Integer> result = received.receive(1, TimeUnit.SECONDS);
+            assertTrue(result != null);
+            assertEquals(1, (int) result.data);
+            assertEquals(0, x.length());
+        }
+        assertTrue(numRaced > 0);
+    }
+
     @Test
     public void selectSend1() {
         final Chan<Integer> chan1 = Chan.create(3);
@@ -984,4 +1100,920 @@ public class SelectTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void selectCases_reuse_pingpong() {
+        final Chan<Integer> ch1 = Chan.create(0);
+        final Chan<Integer> ch2 = Chan.create(0);
+        final Chan<Integer> done = Chan.create(0);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // receive from ch1, then send double of it to ch2. Toggle cases instead of passing null.
+                SelectCases cases = new SelectCases();
+                int recv = cases.addReceive(ch1);
+                int send = cases.addSend(ch2, null);
+                int end = cases.addReceive(done);
+                cases.setEnabled(send, false);
+                while (true) {
+                    int index = cases.select();
+                    if (index == recv) {
+                        cases.setSendData(send, (Integer) cases.getData() * 2);
+                        cases.setEnabled(recv, false);
+                        cases.setEnabled(send, true);
+                    } else if (index == send) {
+                        cases.setEnabled(send, false);
+                        cases.setEnabled(recv, true);
+                    } else if (index == end) {
+                        return;
+                    }
+                }
+            }
+        }).start();
+
+        SelectCases cases = new SelectCases();
+        int send = cases.addSend(ch1, 0);
+        int recv = cases.addReceive(ch2);
+        int sendCount = 0;
+        int recvCount = 0;
+        while (recvCount < 10000) {
+            cases.setSendData(send, sendCount);
+            int index = cases.select();
+            if (index == send) {
+                sendCount++;
+            } else if (index == recv) {
+                assertEquals(recvCount * 2, ((Integer) cases.getData()).intValue());
+                recvCount++;
+            }
+        }
+        done.close();
+    }
+
+    @Test
+    public void selectCases_disabled_expectNotSelected() {
+        Chan<Integer> ch1 = Chan.create(1);
+        Chan<Integer> ch2 = Chan.create(1);
+        ch1.send(1);
+        ch2.send(2);
+
+        SelectCases cases = new SelectCases();
+        assertEquals(0, cases.addReceive(ch1));
+        assertEquals(1, cases.addReceive(ch2));
+        cases.setEnabled(0, false);
+        assertFalse(cases.isEnabled(0));
+        assertEquals(1, cases.selectNonblock());
+        assertEquals(2, cases.getData());
+        assertEquals(-1, cases.selectNonblock());
+
+        cases.setEnabled(0, true);
+        assertEquals(0, cases.selectNonblock());
+        assertEquals(1, cases.getData());
+        assertEquals(2, cases.size());
+    }
+
+    @Test
+    public void selectCases_allDisabled_interrupt_expectReturnMinusOne() throws InterruptedException {
+        final Chan<Integer> ch = Chan.create(1);
+        final Chan<Integer> result = Chan.create(1);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SelectCases cases = new SelectCases();
+                cases.setEnabled(cases.addReceive(ch), false);
+                result.send(cases.select());
+            }
+        });
+        t.start();
+        ch.send(1);
+        Thread.sleep(100);
+        assertEquals(0, result.length());
+        t.interrupt();
+        assertEquals(-1, result.receive().intValue());
+        assertEquals(1, ch.length());
+    }
+
+    @Test
+    public void selectCases_rebindPrimitive() {
+        IntChan ich = IntChan.create(4);
+        LongChan lch = LongChan.create(4);
+        SelectCases cases = new SelectCases();
+        int sendInt = cases.addSendInt(ich, 0);
+        int sendLong = cases.addSendLong(lch, 0);
+        cases.setEnabled(sendLong, false);
+        for (int i = 0; i < 3; i++) {
+            cases.setSendInt(sendInt, i + 10);
+            assertEquals(sendInt, cases.select());
+        }
+        assertEquals(10, ich.receive());
+        assertEquals(11, ich.receive());
+        assertEquals(12, ich.receive());
+
+        try {
+            cases.setSendData(sendInt, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            cases.setSendLong(5, 1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void trackedSelectCases_manyChannels_expectReceiveAll() throws InterruptedException {
+        final int numChan = 1000;
+        final int numSend = 20000;
+        final ArrayList<Chan<Integer>> chans = new ArrayList<Chan<Integer>>();
+        TrackedSelectCases cases = new TrackedSelectCases();
+        for (int i = 0; i < numChan; i++) {
+            // mix buffered, lock-free and unbuffered channels
+            Chan<Integer> ch = i % 3 == 0 ? Chan.<Integer>create(0) : i % 3 == 1 ? Chan.<Integer>create(4) : Chan.<Integer>createLockFree(4);
+            chans.add(ch);
+            assertEquals(i, cases.addReceive(ch));
+        }
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random rand = new Random(seed);
+                    for (int i = 0; i < numSend / 4; i++) {
+                        chans.get(rand.nextInt(numChan)).send(1);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        int sum = 0;
+        for (int i = 0; i < numSend; i++) {
+            int index = cases.select();
+            assertTrue(index >= 0 && index < numChan);
+            sum += (Integer) cases.getData();
+        }
+        assertEquals(numSend, sum);
+        assertEquals(-1, cases.selectNonblock());
+        for (Thread t : threads) {
+            t.join();
+        }
+        cases.clear();
+    }
+
+    @Test
+    public void trackedSelectCases_unbuffered_bothSidesTracked_expectRendezvous() {
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> other1 = Chan.create(0);
+        final Chan<Integer> other2 = Chan.create(0);
+        final int num = 10000;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TrackedSelectCases cases = new TrackedSelectCases();
+                cases.addReceive(other1);
+                int send = cases.addSend(ch, 0);
+                for (int i = 0; i < num; i++) {
+                    cases.setSendData(send, i);
+                    assertEquals(send, cases.select());
+                }
+                cases.clear();
+            }
+        }).start();
+
+        TrackedSelectCases cases = new TrackedSelectCases();
+        int recv = cases.addReceive(ch);
+        cases.addReceive(other2);
+        for (int i = 0; i < num; i++) {
+            assertEquals(recv, cases.select());
+            assertEquals(i, ((Integer) cases.getData()).intValue());
+        }
+        cases.clear();
+    }
+
+    @Test
+    public void trackedSelectCases_withSelectPeer_pingpong() {
+        final Chan<Integer> ch1 = Chan.create(0);
+        final Chan<Integer> ch2 = Chan.create(1);
+        final Chan<Integer> done = Chan.create(0);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Select select = new Select();
+                Integer val = null;
+                while (true) {
+                    select.receive(val == null ? ch1 : null);
+                    select.send(val != null ? ch2 : null, val);
+                    select.receive(done);
+                    int index = select.select();
+                    if (index == 0) {
+                        val = (Integer) select.getData() * 2;
+                    } else if (index == 1) {
+                        val = null;
+                    } else if (index == 2) {
+                        return;
+                    }
+                }
+            }
+        }).start();
+
+        TrackedSelectCases cases = new TrackedSelectCases();
+        int send = cases.addSend(ch1, 0);
+        int recv = cases.addReceive(ch2);
+        int sendCount = 0;
+        int recvCount = 0;
+        while (recvCount < 10000) {
+            cases.setSendData(send, sendCount);
+            int index = cases.select();
+            if (index == send) {
+                sendCount++;
+            } else if (index == recv) {
+                assertEquals(recvCount * 2, ((Integer) cases.getData()).intValue());
+                recvCount++;
+            }
+        }
+        cases.clear();
+        done.close();
+    }
+
+    @Test
+    public void trackedSelectCases_sendAndReceiveSameUnbuffered_interrupt_expectReturnMinusOne() throws InterruptedException {
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> result = Chan.create(1);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TrackedSelectCases cases = new TrackedSelectCases();
+                cases.addSend(ch, 1);
+                cases.addReceive(ch);
+                result.send(cases.select());
+                cases.clear();
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        assertEquals(0, result.length());
+        t.interrupt();
+        assertEquals(-1, result.receive().intValue());
+    }
+
+    @Test
+    public void trackedSelectCases_closed_disabled() {
+        Chan<Integer> ch1 = Chan.create(1);
+        IntChan ch2 = IntChan.create(1);
+        TrackedSelectCases cases = new TrackedSelectCases();
+        int recv1 = cases.addReceive(ch1);
+        int recv2 = cases.addReceiveInt(ch2);
+        assertEquals(-1, cases.selectNonblock());
+
+        ch2.send(5);
+        assertEquals(recv2, cases.selectNonblock());
+        assertEquals(5, cases.getInt());
+
+        cases.setEnabled(recv1, false);
+        ch1.close(-1);
+        assertEquals(-1, cases.selectNonblock());
+        cases.setEnabled(recv1, true);
+        assertEquals(recv1, cases.selectNonblock());
+        assertEquals(-1, ((Integer) cases.getData()).intValue());
+
+        cases.clear();
+        assertEquals(0, cases.size());
+        assertEquals(0, cases.addReceiveInt(ch2));
+        ch2.send(6);
+        assertEquals(0, cases.select());
+        assertEquals(6, cases.getInt());
+        cases.clear();
+    }
+
+    @Test
+    public void trackedSelectCases_manyNullCases_thenChannel() {
+        Chan<Integer> ch = Chan.create(1);
+        TrackedSelectCases cases = new TrackedSelectCases();
+        for (int i = 0; i < 10; i++) {
+            cases.addReceive(null);
+        }
+        assertEquals(10, cases.addReceive(ch));
+        ch.send(1);
+        assertEquals(10, cases.select());
+        cases.clear();
+    }
+
+    @Test
+    public void selectWithTimeout_noData_expectTimeoutAndDeregistered() {
+        final Chan<Integer> ch1 = Chan.create(0);
+        final Chan<Integer> ch2 = Chan.create(0);
+        Timer.assertBlockedForAround(new Runnable() {
+            @Override
+            public void run() {
+                Select select = new Select();
+                select.receive(ch1);
+                select.send(ch2, 1);
+                assertEquals(-1, select.select(300, TimeUnit.MILLISECONDS));
+            }
+        }, 300, 100);
+
+        // nothing is left in the waiting lists
+        Select select = new Select();
+        select.send(ch1, 1);
+        select.receive(ch2);
+        assertEquals(-1, select.selectNonblock());
+    }
+
+    @Test
+    public void selectUntil_dataBeforeDeadline_expectReceive() {
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> done = Chan.create(1);
+        TestUtil.asyncSendIntLater(done, ch, 100, 5);
+        Timer.assertBlockedForAround(new Runnable() {
+            @Override
+            public void run() {
+                Select select = new Select();
+                select.receive(ch);
+                assertEquals(0, select.selectUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(10)));
+                assertEquals(5, select.getData());
+            }
+        }, 100, 100);
+    }
+
+    @Test
+    public void selectWithTimeout_pastDeadline_expectPoll() {
+        Chan<Integer> ch = Chan.create(1);
+        Select select = new Select();
+        select.receive(ch);
+        assertEquals(-1, select.selectUntil(System.nanoTime() - 1));
+        ch.send(1);
+        select.receive(ch);
+        assertEquals(0, select.select(0, TimeUnit.MILLISECONDS));
+        assertEquals(1, select.getData());
+    }
+
+    @Test
+    public void trackedSelectCases_withTimeout() {
+        final Chan<Integer> ch1 = Chan.create(0);
+        final Chan<Integer> ch2 = Chan.create(4);
+        final TrackedSelectCases cases = new TrackedSelectCases();
+        cases.addReceive(ch1);
+        final int recv2 = cases.addReceive(ch2);
+        Timer.assertBlockedForAround(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(-1, cases.select(300, TimeUnit.MILLISECONDS));
+            }
+        }, 300, 100);
+
+        // not left in the waiting list of the unbuffered channel
+        Select select = new Select();
+        select.send(ch1, 1);
+        assertEquals(-1, select.selectNonblock());
+
+        ch2.send(2);
+        assertEquals(recv2, cases.select(300, TimeUnit.MILLISECONDS));
+        assertEquals(2, cases.getData());
+        cases.clear();
+    }
+
+    @Test
+    public void handlerSelect_relay() {
+        final Chan<Integer> ch1 = Chan.create(0);
+        final Chan<Integer> ch2 = Chan.create(0);
+
+        // receive from ch1 and send double of it to ch2, until ch1 is closed
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final HandlerSelect select = new HandlerSelect();
+                final int[] recvIndex = new int[1];
+                final int[] sendIndex = new int[1];
+                final boolean[] closed = new boolean[1];
+                final Integer[] val = new Integer[1];
+                recvIndex[0] = select.onReceive(ch1, new HandlerSelect.ReceiveHandler<Integer>() {
+                    @Override
+                    public void onReceive(Integer data) {
+                        if (data == null) {
+                            closed[0] = true;
+                            return;
+                        }
+                        val[0] = data * 2;
+                        select.setEnabled(recvIndex[0], false);
+                        select.setEnabled(sendIndex[0], true);
+                    }
+                });
+                sendIndex[0] = select.onSend(ch2, new HandlerSelect.SendHandler<Integer>() {
+                    @Override
+                    public Integer dataToSend() {
+                        return val[0];
+                    }
+
+                    @Override
+                    public void onSent(Integer data) {
+                        assertEquals(val[0], data);
+                        select.setEnabled(sendIndex[0], false);
+                        select.setEnabled(recvIndex[0], true);
+                    }
+                });
+                select.setEnabled(sendIndex[0], false);
+                while (!closed[0]) {
+                    select.select();
+                }
+                ch2.close();
+            }
+        }).start();
+
+        TestUtil.asyncSendIntegersAndClose(ch1, null, 1, 2, 3, 4, 5);
+        int i = 1;
+        for (Integer val : ch2) {
+            assertEquals(i * 2, val.intValue());
+            i++;
+        }
+        assertEquals(6, i);
+    }
+
+    @Test
+    public void trackedSelectCases_manyNilCases_clear() {
+        Chan<Integer> ch = Chan.create(1);
+        TrackedSelectCases cases = new TrackedSelectCases();
+        for (int i = 0; i < 6; i++) {
+            cases.addReceive(null);
+        }
+        cases.clear();
+
+        // reusable after clear()
+        for (int i = 0; i < 6; i++) {
+            cases.addReceive(null);
+        }
+        assertEquals(6, cases.addReceive(ch));
+        ch.send(1);
+        assertEquals(6, cases.select());
+        cases.clear();
+    }
+
+    @Test
+    public void trackedSelectCases_priority_expectFirstReadyCase() {
+        Chan<Integer> ch1 = Chan.create(4);
+        Chan<Integer> ch2 = Chan.create(4);
+        Chan<Integer> ch3 = Chan.create(4);
+        TrackedSelectCases cases = new TrackedSelectCases();
+        cases.setPriority(true, 0);
+        assertTrue(cases.isPriority());
+        cases.addReceive(ch1);
+        cases.addReceive(ch2);
+        cases.addReceive(ch3);
+        // ready in the reverse order
+        ch3.send(3);
+        ch2.send(2);
+        ch1.send(1);
+        ch1.send(11);
+        assertEquals(0, cases.select());
+        assertEquals(0, cases.select());
+        assertEquals(11, cases.getData());
+        assertEquals(1, cases.select());
+        assertEquals(2, cases.select());
+        assertEquals(-1, cases.selectNonblock());
+
+        // every other select is fair, and takes the case ready for the longest
+        cases.setPriority(true, 1);
+        for (int i = 0; i < 4; i++) {
+            ch1.send(i);
+            ch2.send(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, cases.select());
+            assertEquals(1, cases.select());
+        }
+        assertEquals(-1, cases.selectNonblock());
+        cases.clear();
+    }
+
+    @Test
+    public void handlerSelect_dataToSend_expectCalledForEverySendCase() {
+        Chan<Integer> ready = Chan.create(1);
+        // never ready
+        Chan<Integer> blocked = Chan.create(0);
+        final int[] calls = new int[2];
+        final int[] sent = new int[2];
+        HandlerSelect select = new HandlerSelect();
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            select.onSend(i == 0 ? ready : blocked, new HandlerSelect.SendHandler<Integer>() {
+                @Override
+                public Integer dataToSend() {
+                    calls[index]++;
+                    return index;
+                }
+
+                @Override
+                public void onSent(Integer data) {
+                    sent[index]++;
+                }
+            });
+        }
+        assertEquals(0, select.select());
+        assertEquals(-1, select.selectNonblock());
+        // the case which was never selected is asked for its data on every select
+        assertEquals(2, calls[0]);
+        assertEquals(2, calls[1]);
+        assertEquals(1, sent[0]);
+        assertEquals(0, sent[1]);
+
+        // not called for a disabled case
+        select.setEnabled(1, false);
+        assertEquals(-1, select.selectNonblock());
+        assertEquals(3, calls[0]);
+        assertEquals(2, calls[1]);
+    }
+
+    @Test
+    public void handlerSelect_nonblockAndTimeout() {
+        Chan<String> ch = Chan.create(1);
+        final String[] received = new String[1];
+        HandlerSelect select = new HandlerSelect(new TrackedSelectCases());
+        select.onReceive(ch, new HandlerSelect.ReceiveHandler<Object>() {
+            @Override
+            public void onReceive(Object data) {
+                received[0] = (String) data;
+            }
+        });
+        assertEquals(-1, select.selectNonblock());
+        assertEquals(-1, select.select(10, TimeUnit.MILLISECONDS));
+        assertEquals(null, received[0]);
+        ch.send("a");
+        assertEquals(0, select.selectNonblock());
+        assertEquals("a", received[0]);
+        select.clear();
+    }
+
+    @Test
+    public void priority_expectFirstReadyCase() {
+        Chan<Integer> control = Chan.create(10);
+        Chan<Integer> bulk = Chan.create(10);
+        for (int i = 0; i < 10; i++) {
+            bulk.send(i);
+        }
+        control.send(100);
+        control.send(101);
+
+        SelectCases cases = new SelectCases();
+        cases.setPriority(true, 0);
+        int c = cases.addReceive(control);
+        int b = cases.addReceive(bulk);
+        assertEquals(c, cases.select());
+        assertEquals(100, cases.getData());
+        assertEquals(c, cases.select());
+        assertEquals(101, cases.getData());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(b, cases.select());
+            assertEquals(i, cases.getData());
+        }
+
+        // Select keeps the mode
+        Select select = new Select().setPriority(true, 0);
+        control.send(1);
+        bulk.send(2);
+        select.receive(control);
+        select.receive(bulk);
+        assertEquals(0, select.select());
+        select.receive(control);
+        select.receive(bulk);
+        assertEquals(1, select.select());
+    }
+
+    @Test
+    public void priority_withStarvationLimit_expectLaterCaseSelected() {
+        Chan<Integer> ch1 = Chan.create(1000);
+        Chan<Integer> ch2 = Chan.create(1000);
+        for (int i = 0; i < 1000; i++) {
+            ch1.send(i);
+            ch2.send(i);
+        }
+        SelectCases cases = new SelectCases();
+        cases.setPriority(true, 4);
+        cases.addReceive(ch1);
+        cases.addReceive(ch2);
+        int count2 = 0;
+        for (int i = 0; i < 500; i++) {
+            if (cases.select() == 1) {
+                count2++;
+            }
+        }
+        // one in five selects is fair, half of which picks ch2
+        assertTrue("count2=" + count2, count2 > 20 && count2 < 100);
+    }
+
+    @Test
+    public void selectLoop_untilAllClosed() {
+        Chan<Integer> ch1 = Chan.create(0);
+        Chan<Integer> ch2 = Chan.create(4);
+        TestUtil.asyncSendIntegersAndClose(ch1, -1, 1, 2, 3);
+        TestUtil.asyncSendIntegersAndClose(ch2, -1, 10, 20);
+
+        final int[] sum = new int[1];
+        SelectLoop loop = new SelectLoop();
+        HandlerSelect.ReceiveHandler<Integer> handler = new HandlerSelect.ReceiveHandler<Integer>() {
+            @Override
+            public void onReceive(Integer data) {
+                // not called with 'end'
+                assertTrue(data > 0);
+                sum[0] += data;
+            }
+        };
+        loop.onReceive(ch1, handler);
+        loop.onReceive(ch2, handler);
+        assertTrue(loop.run());
+        assertEquals(36, sum[0]);
+        loop.close();
+    }
+
+    @Test
+    public void selectLoop_stopFromHandler() {
+        final Chan<Integer> ch = Chan.create(0);
+        final Chan<Integer> out = Chan.create(100);
+        TestUtil.asyncSendIntegers(ch, 1, 2, 3, 4, 5);
+
+        final SelectLoop loop = new SelectLoop();
+        final int[] next = new int[] { 100 };
+        loop.onReceive(ch, new HandlerSelect.ReceiveHandler<Integer>() {
+            @Override
+            public void onReceive(Integer data) {
+                if (data == 3) {
+                    loop.stop();
+                }
+            }
+        });
+        final int send = loop.onSend(out, new HandlerSelect.SendHandler<Integer>() {
+            @Override
+            public Integer dataToSend() {
+                return next[0];
+            }
+
+            @Override
+            public void onSent(Integer data) {
+                next[0]++;
+                if (next[0] == 103) {
+                    loop.setEnabled(0, true);
+                    loop.setEnabled(1, false);
+                }
+            }
+        });
+        loop.setEnabled(0, false);
+        assertTrue(loop.run());
+        assertEquals(3, out.length());
+        assertEquals(100, out.receive().intValue());
+        assertEquals(4, ch.receive().intValue());
+        loop.close();
+    }
+
+    @Test
+    public void selectCases_isOk() {
+        Chan<Integer> ch = Chan.create(1);
+        IntChan ich = IntChan.create(1);
+        SelectCases cases = new SelectCases();
+        cases.addReceive(ch);
+        cases.addReceiveInt(ich);
+        ch.send(1);
+        assertEquals(0, cases.select());
+        assertTrue(cases.isOk());
+        ch.close(-1);
+        ich.close(-2);
+        cases.setEnabled(1, false);
+        assertEquals(0, cases.select());
+        assertFalse(cases.isOk());
+        assertEquals(-1, cases.getData());
+        cases.setEnabled(0, false);
+        cases.setEnabled(1, true);
+        assertEquals(1, cases.select());
+        assertFalse(cases.isOk());
+        assertEquals(-2, cases.getInt());
+    }
+
+    @Test
+    public void selectNonblock_whileLocked_expectNoBlockWhenNotReady() {
+        Chan<Integer> ch1 = Chan.create(1);
+        Chan<Integer> ch2 = Chan.create(1);
+        IntChan ich = IntChan.create(0);
+        ch2.send(0);
+        SelectCases cases = new SelectCases();
+        cases.addReceive(ch1);
+        cases.addSend(ch2, 1);
+        cases.addReceiveInt(ich);
+
+        // none of the cases is ready, so the locks are not taken
+        Chan<Void> release1 = TestUtil.holdLock(ch1);
+        Chan<Void> release2 = TestUtil.holdLock(ch2);
+        Chan<Void> release3 = TestUtil.holdLock(ich);
+        assertEquals(-1, cases.selectNonblock());
+        assertEquals(-1, new Select().receive(ch1).send(ch2, 1).selectNonblock());
+        release1.close();
+        release2.close();
+        release3.close();
+
+        ch1.send(5);
+        assertEquals(0, cases.selectNonblock());
+        assertEquals(5, cases.getData());
+        ch2.receive();
+        assertEquals(1, cases.selectNonblock());
+        ich.close();
+        assertEquals(2, cases.selectNonblock());
+        assertFalse(cases.isOk());
+    }
+
+    @Test
+    public void trackedSelectCases_selectAsync_thenSync() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Chan<Integer> ch1 = Chan.create(0);
+            Chan<Integer> ch2 = Chan.create(1);
+            final TrackedSelectCases cases = new TrackedSelectCases();
+            cases.addReceive(ch1);
+            cases.addReceive(ch2);
+            final Chan<Integer> selected = Chan.create(1);
+            SelectCases.Callback callback = new SelectCases.Callback() {
+                @Override
+                public void onSelect(int index) {
+                    selected.send(index * 100 + (Integer) cases.getData());
+                }
+            };
+
+            cases.selectAsync(callback, executor);
+            ch1.send(1);
+            assertEquals((Integer) 1, selected.receive());
+            cases.selectAsync(callback, executor);
+            ch2.send(2);
+            assertEquals((Integer) 102, selected.receive());
+
+            // the tracked select still works after the async ones
+            TestUtil.asyncSleepAndSendIntegers(10, ch1, 3);
+            assertEquals(0, cases.select());
+            assertEquals((Integer) 3, cases.getData());
+            ch2.send(4);
+            assertEquals(1, cases.select());
+            assertEquals((Integer) 4, cases.getData());
+            assertEquals(-1, cases.selectNonblock());
+            cases.clear();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void selectAsync_failure_expectThrownInsteadOfClosedCase() {
+        final IllegalStateException failure = new IllegalStateException("bug");
+        SelectCases cases = new SelectCases() {
+            @Override
+            int selectOrRegister(AsyncSelect context) {
+                throw failure;
+            }
+        };
+        cases.addReceive(Chan.<Integer>create(0));
+        final Chan<Integer> selected = Chan.create(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cases.selectAsync(new SelectCases.Callback() {
+                @Override
+                public void onSelect(int index) {
+                    selected.send(index);
+                }
+            }, executor);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, selected.length());
+    }
+
+    @Test
+    public void selectAsync() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Chan<Integer> ch1 = Chan.create(0);
+            Chan<Integer> ch2 = Chan.createLockFree(1);
+            final SelectCases cases = new SelectCases();
+            cases.addReceive(ch1);
+            cases.addReceive(ch2);
+            final Chan<Integer> selected = Chan.create(1);
+            SelectCases.Callback callback = new SelectCases.Callback() {
+                @Override
+                public void onSelect(int index) {
+                    selected.send(index * 100 + (Integer) cases.getData());
+                }
+            };
+
+            // woken up by a peer of each channel
+            cases.selectAsync(callback, executor);
+            ch2.send(5);
+            assertEquals((Integer) 105, selected.receive());
+            cases.selectAsync(callback, executor);
+            ch1.send(6);
+            assertEquals((Integer) 6, selected.receive());
+            assertEquals(0, ch2.mReceivers.size());
+
+            // a blocking select is the peer
+            cases.selectAsync(callback, executor);
+            assertEquals(0, new Select().send(ch1, 7).select());
+            assertEquals((Integer) 7, selected.receive());
+
+            // ready without waiting
+            ch2.send(8);
+            cases.selectAsync(callback, executor);
+            assertEquals((Integer) 108, selected.receive());
+
+            // send case on a closed channel
+            final SelectCases sendCases = new SelectCases();
+            sendCases.addSend(ch1, 9);
+            sendCases.selectAsync(new SelectCases.Callback() {
+                @Override
+                public void onSelect(int index) {
+                    selected.send(index);
+                }
+            }, executor);
+            TestUtil.sleep(20);
+            ch1.close();
+            assertEquals((Integer) (-1), selected.receive());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void selectBatch_expectDrainBufferedAndSenders() {
+        final Chan<Integer> ch1 = Chan.create(4);
+        Chan<Integer> ch2 = Chan.create(4);
+        for (int i = 0; i < 4; i++) {
+            ch1.send(i);
+        }
+        // 2 senders wait on the full buffer
+        TestUtil.asyncSendIntegers(ch1, 4);
+        TestUtil.asyncSendIntegers(ch1, 5);
+        while (ch1.mSenders.size() < 2) {
+            Thread.yield();
+        }
+
+        SelectCases cases = new SelectCases();
+        cases.addReceive(ch1);
+        cases.addReceive(ch2);
+        Object[] dst = new Object[10];
+        assertEquals(0, cases.selectBatch(dst, 10));
+        assertEquals(6, cases.getCount());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, dst[i]);
+        }
+        assertEquals(9, (Integer) dst[4] + (Integer) dst[5]);
+
+        // limited by max
+        for (int i = 0; i < 4; i++) {
+            ch2.send(i);
+        }
+        assertEquals(1, cases.selectBatch(dst, 3));
+        assertEquals(3, cases.getCount());
+        assertEquals(1, ch2.length());
+    }
+
+    @Test
+    public void selectBatch_handedWhileWaiting_lockFree() {
+        final Chan<Integer> ch = Chan.createLockFree(16);
+        final TrackedSelectCases tracked = new TrackedSelectCases();
+        SelectCases[] table = new SelectCases[] { new SelectCases(), tracked };
+        for (SelectCases cases : table) {
+            cases.addReceive(ch);
+            TestUtil.asyncSleepAndSendIntegers(100, ch, 1, 2, 3);
+            Object[] dst = new Object[8];
+            int total = 0;
+            while (total < 3) {
+                assertEquals(0, cases.selectBatch(dst, 8));
+                assertTrue(cases.getCount() > 0);
+                for (int i = 0; i < cases.getCount(); i++) {
+                    total++;
+                    assertEquals(total, dst[i]);
+                }
+            }
+            ch.send(4);
+            assertEquals(0, cases.selectBatch(dst, 1));
+            assertEquals(1, cases.getCount());
+            assertEquals(4, dst[0]);
+            cases.clear();
+        }
+    }
+
+    @Test
+    public void selectBatch_closedOrSend_expectCountZero() {
+        Chan<Integer> ch1 = Chan.create(1);
+        Chan<Integer> ch2 = Chan.create(1);
+        SelectCases cases = new SelectCases();
+        cases.addSend(ch1, 1);
+        cases.addReceive(ch2);
+        Object[] dst = new Object[4];
+        assertEquals(0, cases.selectBatch(dst, 4));
+        assertEquals(0, cases.getCount());
+        cases.setEnabled(0, false);
+        ch2.close();
+        assertEquals(1, cases.selectBatch(dst, 4));
+        assertEquals(0, cases.getCount());
+        assertFalse(cases.isOk());
+    }
+
+}
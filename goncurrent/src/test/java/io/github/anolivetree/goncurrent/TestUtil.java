@@ -117,4 +117,26 @@ public class TestUtil {
         }).start();
 
     }
+
+    /**
+     * Hold the lock of the channel on another thread until the returned channel is closed.
+     */
+    static public Chan<Void> holdLock(final BaseChan ch) {
+        final Chan<Void> locked = Chan.create(0);
+        final Chan<Void> release = Chan.create(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ch.mLock.lock();
+                try {
+                    locked.close();
+                    release.receive();
+                } finally {
+                    ch.mLock.unlock();
+                }
+            }
+        }).start();
+        locked.receive();
+        return release;
+    }
 }
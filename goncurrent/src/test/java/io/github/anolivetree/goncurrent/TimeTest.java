@@ -0,0 +1,178 @@
+package io.github.anolivetree.goncurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeTest {
+
+    static private class TestEntry extends TimingWheel.Entry {
+        boolean mCancelled;
+        int mExpired;
+
+        @Override
+        void expire() {
+            mExpired++;
+        }
+    }
+
+    @Test
+    public void timingWheel_randomDeadlines_expectExpireOnTheirTick() {
+        final long tick = TimingWheel.TICK_NANOS;
+        TimingWheel wheel = new TimingWheel(0);
+        Random random = new Random(1);
+        TestEntry[] entries = new TestEntry[100000];
+        int numCancelled = 0;
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new TestEntry();
+            // up to about 200 days, beyond the range of the wheel
+            long deadlineTick = (i % 3 == 0) ? random.nextInt(1000) : (random.nextLong() >>> 1) % (1L << 34);
+            wheel.schedule(entries[i], deadlineTick * tick);
+        }
+        for (int i = 0; i < entries.length; i += 7) {
+            assertTrue(wheel.cancel(entries[i]));
+            assertFalse(wheel.cancel(entries[i]));
+            entries[i].mCancelled = true;
+            numCancelled++;
+        }
+
+        ArrayList<TimingWheel.Entry> expired = new ArrayList<TimingWheel.Entry>();
+        long prev = -tick;
+        int total = 0;
+        while (true) {
+            long now = wheel.nextDeadlineNanos();
+            if (now == Long.MAX_VALUE) {
+                break;
+            }
+            wheel.advanceTo(now, expired);
+            for (TimingWheel.Entry entry : expired) {
+                TestEntry e = (TestEntry) entry;
+                assertFalse(e.mCancelled);
+                assertEquals(0, e.mExpired);
+                e.mExpired++;
+                // due now, and was not due at the previous advance
+                assertTrue(e.mDeadlineNanos <= now);
+                assertTrue(e.mDeadlineNanos / tick > prev / tick);
+            }
+            total += expired.size();
+            expired.clear();
+            prev = now;
+        }
+        assertEquals(entries.length - numCancelled, total);
+    }
+
+    @Test
+    public void timingWheel_reschedule_expectMoved() {
+        final long tick = TimingWheel.TICK_NANOS;
+        TimingWheel wheel = new TimingWheel(0);
+        TestEntry entry = new TestEntry();
+        assertFalse(wheel.schedule(entry, 100000 * tick));
+        assertTrue(wheel.schedule(entry, 10 * tick));
+        assertEquals(10 * tick, wheel.nextDeadlineNanos());
+
+        ArrayList<TimingWheel.Entry> expired = new ArrayList<TimingWheel.Entry>();
+        wheel.advanceTo(9 * tick, expired);
+        assertEquals(0, expired.size());
+        wheel.advanceTo(10 * tick, expired);
+        assertEquals(1, expired.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadlineNanos());
+        assertFalse(wheel.cancel(entry));
+    }
+
+    @Test
+    public void after_expectReceiveAfterDelay() {
+        long start = System.nanoTime();
+        Chan<Long> ch = Time.after(50, TimeUnit.MILLISECONDS);
+        assertTrue(ch.receive() != null);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, ch.length());
+    }
+
+    @Test
+    public void after_inSelect_expectTimeout() {
+        Chan<Integer> ch = Chan.create(0);
+        Select select = new Select();
+        select.receive(ch);
+        select.receive(Time.after(20, TimeUnit.MILLISECONDS));
+        assertEquals(1, select.select());
+    }
+
+    @Test
+    public void timer_stopAndReset() {
+        Time.Timer timer = Time.newTimer(1, TimeUnit.HOURS);
+        assertTrue(timer.stop());
+        assertFalse(timer.stop());
+        assertFalse(timer.reset(10, TimeUnit.MILLISECONDS));
+        timer.chan().receive();
+        assertFalse(timer.stop());
+
+        // many timers at once
+        Time.Timer[] timers = new Time.Timer[10000];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = Time.newTimer(i % 100, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < timers.length; i++) {
+            timers[i].chan().receive();
+        }
+    }
+
+    @Test
+    public void ticker_expectTicksUntilStopped() {
+        Time.Ticker ticker = Time.newTicker(10, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            ticker.chan().receive();
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        ticker.stop();
+        TestUtil.sleep(50);
+        // at most one tick sent before stop()
+        assertTrue(ticker.chan().length() <= 1);
+        if (ticker.chan().length() == 1) {
+            ticker.chan().receive();
+        }
+        TestUtil.sleep(50);
+        assertEquals(0, ticker.chan().length());
+    }
+
+    @Test
+    public void ticker_slowReceiver_expectTicksDropped() {
+        Time.Ticker ticker = Time.newTicker(5, TimeUnit.MILLISECONDS);
+        TestUtil.sleep(100);
+        assertEquals(1, ticker.chan().length());
+        ticker.stop();
+    }
+
+    @Test
+    public void after_chanClosedByUser_expectOtherTimersStillFire() {
+        Time.after(10, TimeUnit.MILLISECONDS).close();
+        Time.Ticker ticker = Time.newTicker(5, TimeUnit.MILLISECONDS);
+        ticker.chan().close();
+        TestUtil.sleep(30);
+        ticker.stop();
+
+        assertTrue(Time.after(10, TimeUnit.MILLISECONDS).receive() != null);
+        Context ctx = Context.withTimeout(Context.background(), 10, TimeUnit.MILLISECONDS);
+        assertFalse(ctx.done().receiveWithResult().ok);
+        assertEquals(Context.DEADLINE_EXCEEDED, ctx.err());
+    }
+
+    @Test
+    public void timingWheel_entryThrows_expectOtherEntriesStillExpire() {
+        TimingWheel.Entry bad = new TimingWheel.Entry() {
+            @Override
+            void expire() {
+                throw new RuntimeException("expected by the test");
+            }
+        };
+        TimingWheel.shared().schedule(bad, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(5));
+        TestUtil.sleep(20);
+        assertTrue(Time.after(10, TimeUnit.MILLISECONDS).receive() != null);
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.anolivetree.goncurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WaitGroupTest {
+
+    @Test
+    public void waitGroup_expectWaitUntilZero() {
+        final WaitGroup wg = new WaitGroup();
+        assertTrue(wg.await());
+        assertFalse(wg.chan().receiveWithResult().ok);
+
+        for (int round = 0; round < 3; round++) {
+            // reused after reaching zero
+            final int num = 100;
+            final AtomicInteger finished = new AtomicInteger();
+            wg.add(num);
+            for (int i = 0; i < num; i++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        TestUtil.sleep(10);
+                        finished.incrementAndGet();
+                        wg.done();
+                    }
+                }).start();
+            }
+            assertTrue(wg.await());
+            assertEquals(num, finished.get());
+            assertEquals(0, wg.count());
+        }
+    }
+
+    @Test
+    public void waitGroup_chanInSelect() {
+        final WaitGroup wg = new WaitGroup();
+        wg.add(1);
+        Chan<Integer> ch = Chan.create(0);
+        Chan<Void> done = wg.chan();
+        TestUtil.asyncSleepAndSendIntegers(10, ch, 1);
+        Select select = new Select();
+        assertEquals(0, select.receive(ch).receive(done).select());
+        wg.done();
+        assertEquals(1, select.receive(ch).receive(done).select());
+    }
+
+    @Test
+    public void waitGroup_negative_expectException() {
+        final WaitGroup wg = new WaitGroup();
+        TestUtil.expectException(new Runnable() {
+            @Override
+            public void run() {
+                wg.done();
+            }
+        });
+    }
+
+    @Test
+    public void waitGroup_interrupt_expectFalse() {
+        final WaitGroup wg = new WaitGroup();
+        wg.add(1);
+        final Thread thread = Thread.currentThread();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TestUtil.sleep(20);
+                thread.interrupt();
+            }
+        }).start();
+        assertFalse(wg.await());
+        wg.done();
+        assertTrue(wg.await());
+    }
+
+    @Test
+    public void errGroup_firstFailureCancelsOthers() {
+        ErrGroup group = new ErrGroup();
+        final Exception failure = new Exception("failure");
+        final AtomicInteger cancelled = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            group.go(new ErrGroup.Task() {
+                @Override
+                public void run(Context ctx) throws Exception {
+                    ctx.done().receive();
+                    cancelled.incrementAndGet();
+                }
+            });
+        }
+        group.go(new ErrGroup.Task() {
+            @Override
+            public void run(Context ctx) throws Exception {
+                TestUtil.sleep(10);
+                throw failure;
+            }
+        });
+        assertEquals(failure, group.await());
+        assertEquals(10, cancelled.get());
+        assertEquals(Context.CANCELED, group.context().err());
+    }
+
+    @Test
+    public void errGroup_success_expectNull() {
+        ErrGroup group = new ErrGroup(Context.withTimeout(Context.background(), 1, TimeUnit.HOURS));
+        final AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            group.go(new ErrGroup.Task() {
+                @Override
+                public void run(Context ctx) {
+                    count.incrementAndGet();
+                }
+            });
+        }
+        group.chan().receive();
+        assertEquals(null, group.await());
+        assertEquals(10, count.get());
+        assertTrue(group.context().isDone());
+    }
+}